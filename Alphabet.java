@@ -0,0 +1,277 @@
+import java.util.Arrays;
+
+/**
+ * Maps code points to the character classes a compiled automaton's table is
+ * keyed by. Two code points share a class when no transition of the NFA can
+ * tell them apart, that is when every transition that accepts one also
+ * accepts the other. Every code point no rule accepts shares class 0, which
+ * no edge ever follows. A transition accepting "abc" on its own therefore
+ * adds one class for all three letters instead of three.
+ *
+ * Classes of Basic Multilingual Plane code points are looked up in a dense
+ * table covering Latin-1 and every BMP code point up to the highest one a
+ * rule uses. Code points above the BMP are looked up by binary search.
+ *
+ * static final int OTHER: the class of code points no rule accepts
+ * int[] dense: the class of each code point below dense.length
+ * int[] codePoints: the sorted supplementary code points with a class
+ * int[] codePointClasses: the class of each entry of codePoints
+ * int classCount: the number of classes, including OTHER
+ * int[] representatives: one code point of each class (-1 for OTHER)
+ * int[][] members: the code points of each class (none listed for OTHER)
+ */
+public class Alphabet
+{
+    public static final int OTHER = 0;
+
+    private final int[] dense;
+    private final int[] codePoints;
+    private final int[] codePointClasses;
+    private final int classCount;
+    private final int[] representatives;
+    private final int[][] members;
+
+    /**
+     * Constructor for Alphabet. Starts with every code point on the edges of
+     * the snapshot in one class, then splits classes by the code points each
+     * pair of states is connected by, until every class is a set of code
+     * points that always go to the same states.
+     *
+     * NFASnapshot graph: the snapshot whose edges define the alphabet
+     */
+    public Alphabet(NFASnapshot graph)
+    {
+        int stateCount = graph.getStateCount();
+        int edgeCount = graph.getEdgeStart(stateCount);
+        int[] chars = new int[edgeCount];
+        int count = 0;
+        for (int e = 0; e < edgeCount; e++)
+        {
+            if (graph.getEdgeChar(e) != NFASnapshot.EPSILON)
+            {
+                chars[count++] = graph.getEdgeChar(e);
+            }
+        }
+        Arrays.sort(chars, 0, count);
+
+        int distinct = 0;
+        for (int i = 0; i < count; i++)
+        {
+            if (distinct == 0 || chars[distinct - 1] != chars[i])
+            {
+                chars[distinct++] = chars[i];
+            }
+        }
+
+        // classOf[i] is the class of chars[i] while the classes are refined
+        int[] classOf = new int[distinct];
+        int[] classSize = new int[distinct + 1];
+        int[] touchedCount = new int[distinct + 1];
+        int[] splitTo = new int[distinct + 1];
+        int[] touched = new int[distinct + 1];
+        Arrays.fill(splitTo, -1);
+        int classes = 1;
+        if (distinct > 0)
+        {
+            Arrays.fill(classOf, 1);
+            classSize[1] = distinct;
+            classes = 2;
+        }
+
+        // refine by the code points that go from each state to each target
+        long[] keys = new long[edgeCount];
+        int[] group = new int[distinct];
+        for (int s = 0; s < stateCount; s++)
+        {
+            int k = 0;
+            for (int e = graph.getEdgeStart(s); e < graph.getEdgeStart(s + 1); e++)
+            {
+                if (graph.getEdgeChar(e) != NFASnapshot.EPSILON)
+                {
+                    int i = Arrays.binarySearch(chars, 0, distinct, graph.getEdgeChar(e));
+                    keys[k++] = ((long) graph.getEdgeTarget(e) << 32) | i;
+                }
+            }
+            Arrays.sort(keys, 0, k);
+
+            int j = 0;
+            while (j < k)
+            {
+                long target = keys[j] >>> 32;
+                int groupSize = 0;
+                while (j < k && (keys[j] >>> 32) == target)
+                {
+                    int i = (int) keys[j];
+                    if (groupSize == 0 || group[groupSize - 1] != i)
+                    {
+                        group[groupSize++] = i;
+                    }
+                    j++;
+                }
+                classes = refine(group, groupSize, classOf, classSize, touchedCount, splitTo, touched, classes);
+            }
+        }
+
+        // renumber the classes in order of their smallest code point
+        int[] renumber = new int[classes];
+        Arrays.fill(renumber, -1);
+        classCount = classes;
+        representatives = new int[classCount];
+        members = new int[classCount][];
+        representatives[OTHER] = -1;
+        members[OTHER] = new int[0];
+        int next = 1;
+        for (int i = 0; i < distinct; i++)
+        {
+            int c = classOf[i];
+            if (renumber[c] < 0)
+            {
+                renumber[c] = next;
+                representatives[next] = chars[i];
+                members[next] = new int[classSize[c]];
+                classSize[c] = 0;
+                next++;
+            }
+            members[renumber[c]][classSize[c]++] = chars[i];
+            classOf[i] = renumber[c];
+        }
+
+        int denseLength = 256;
+        int supplementary = 0;
+        for (int i = 0; i < distinct; i++)
+        {
+            if (chars[i] < Character.MIN_SUPPLEMENTARY_CODE_POINT)
+            {
+                denseLength = Math.max(denseLength, chars[i] + 1);
+            }
+            else
+            {
+                supplementary++;
+            }
+        }
+
+        dense = new int[denseLength];
+        codePoints = new int[supplementary];
+        codePointClasses = new int[supplementary];
+        int h = 0;
+        for (int i = 0; i < distinct; i++)
+        {
+            if (chars[i] < denseLength)
+            {
+                dense[chars[i]] = classOf[i];
+            }
+            else
+            {
+                codePoints[h] = chars[i];
+                codePointClasses[h] = classOf[i];
+                h++;
+            }
+        }
+    }
+
+    /**
+     * Splits every class that is only partly in a group of code points into
+     * the part in the group and the part outside it.
+     *
+     * int[] group: the indexes of the code points in the group
+     * int groupSize: the number of entries of group to use
+     * int[] classOf, classSize: the current class of each code point and the
+     *      size of each class
+     * int[] touchedCount, splitTo, touched: scratch space, left as it was
+     *      found
+     * int classes: the current number of classes
+     *
+     * Returns the new number of classes.
+     */
+    private static int refine(int[] group, int groupSize, int[] classOf, int[] classSize,
+        int[] touchedCount, int[] splitTo, int[] touched, int classes)
+    {
+        int touchedSize = 0;
+        for (int i = 0; i < groupSize; i++)
+        {
+            int c = classOf[group[i]];
+            if (touchedCount[c] == 0)
+            {
+                touched[touchedSize++] = c;
+            }
+            touchedCount[c]++;
+        }
+
+        for (int i = 0; i < touchedSize; i++)
+        {
+            int c = touched[i];
+            if (touchedCount[c] < classSize[c])
+            {
+                splitTo[c] = classes;
+                classSize[classes] = touchedCount[c];
+                classSize[c] -= touchedCount[c];
+                classes++;
+            }
+        }
+
+        for (int i = 0; i < groupSize; i++)
+        {
+            int c = classOf[group[i]];
+            if (splitTo[c] >= 0)
+            {
+                classOf[group[i]] = splitTo[c];
+            }
+        }
+
+        for (int i = 0; i < touchedSize; i++)
+        {
+            touchedCount[touched[i]] = 0;
+            splitTo[touched[i]] = -1;
+        }
+        return classes;
+    }
+
+    /**
+     * Returns the number of character classes, including OTHER.
+     */
+    public int getClassCount()
+    {
+        return classCount;
+    }
+
+    /**
+     * Returns the class of the given code point.
+     *
+     * int codePoint: the code point to look up
+     */
+    public int classOf(int codePoint)
+    {
+        if (codePoint >= 0 && codePoint < dense.length)
+        {
+            return dense[codePoint];
+        }
+        if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT)
+        {
+            return OTHER;
+        }
+        int i = Arrays.binarySearch(codePoints, codePoint);
+        return i < 0 ? OTHER : codePointClasses[i];
+    }
+
+    /**
+     * Returns a code point that belongs to the given class, or -1 for OTHER.
+     *
+     * int cls: the class to look up
+     */
+    public int getRepresentative(int cls)
+    {
+        return representatives[cls];
+    }
+
+    /**
+     * Returns the code points that belong to the given class, in increasing
+     * order. OTHER has no listed code points. The returned array is shared
+     * and must not be changed.
+     *
+     * int cls: the class to look up
+     */
+    public int[] getCodePoints(int cls)
+    {
+        return members[cls];
+    }
+}
@@ -0,0 +1,119 @@
+import java.util.BitSet;
+
+/**
+ * The outcome of running an NFA on a batch of inputs: whether each input was
+ * accepted, in the order the inputs were read, and how many were accepted
+ * and rejected in total.
+ *
+ * BitSet accepted: bit i is set if input i was accepted
+ * int count: the number of inputs run
+ * int acceptedCount: the number of inputs accepted
+ */
+public class BatchResult
+{
+    private BitSet accepted = new BitSet();
+    private int count;
+    private int acceptedCount;
+
+    /**
+     * Constructor for an empty BatchResult, to which outcomes are added.
+     */
+    public BatchResult()
+    {
+    }
+
+    /**
+     * Constructor for the BatchResult of a whole batch already run.
+     *
+     * boolean[] accepts: true at the index of each input accepted
+     */
+    public BatchResult(boolean[] accepts)
+    {
+        for (int i = 0; i < accepts.length; i++)
+        {
+            if (accepts[i])
+            {
+                accepted.set(i);
+                acceptedCount++;
+            }
+        }
+        count = accepts.length;
+    }
+
+    /**
+     * Records the outcome of the next input of the batch.
+     *
+     * boolean accepts: true if the input was accepted
+     */
+    public void add(boolean accepts)
+    {
+        if (accepts)
+        {
+            accepted.set(count);
+            acceptedCount++;
+        }
+        count++;
+    }
+
+    /**
+     * Records the outcomes of another batch, as if its inputs came after the
+     * inputs of this one.
+     *
+     * BatchResult other: the batch to add
+     */
+    public void addAll(BatchResult other)
+    {
+        for (int i = other.accepted.nextSetBit(0); i >= 0; i = other.accepted.nextSetBit(i + 1))
+        {
+            accepted.set(count + i);
+        }
+        count += other.count;
+        acceptedCount += other.acceptedCount;
+    }
+
+    /**
+     * Returns true if the input at the given index was accepted.
+     *
+     * int index: the position of the input in the batch, starting at 0
+     */
+    public boolean isAccepted(int index)
+    {
+        if (index < 0 || index >= count)
+        {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Count: " + count);
+        }
+        return accepted.get(index);
+    }
+
+    /**
+     * Returns the number of inputs run.
+     */
+    public int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Returns the number of inputs accepted.
+     */
+    public int getAcceptedCount()
+    {
+        return acceptedCount;
+    }
+
+    /**
+     * Returns the number of inputs rejected.
+     */
+    public int getRejectedCount()
+    {
+        return count - acceptedCount;
+    }
+
+    /**
+     * Returns a summary of the batch.
+     */
+    public String toString()
+    {
+        return count + " inputs: " + acceptedCount + " accepted, " + getRejectedCount() + " rejected";
+    }
+}
@@ -0,0 +1,431 @@
+/**
+ * Runs an NFA snapshot with the set of active states kept as a bitset of
+ * longs, one bit per state. For every character class and every state with
+ * an edge on that class, the set of states reached (closed under epsilon
+ * edges) is precomputed as a mask. A step ANDs the active set with the states
+ * that have an edge on the class and ORs together the masks of the bits left,
+ * instead of walking over edges and rules.
+ *
+ * Only the states that have an edge on a class get a mask for it. The masks
+ * of a class are stored one after another in state order, and the mask of a
+ * state is found by counting the states with an edge on the class before it:
+ * the count for every word of the set is kept, and the count within the word
+ * is one bitCount. So the masks take the number of (state, class) pairs with
+ * an edge times the words in a set, rather than every state for every class,
+ * and NFAs of a few thousand states fit in a few megabytes. Each mask also
+ * records the range of its words that aren't zero, and only those are ORed
+ * in, so a state whose successors are close together in the state list costs
+ * a word or two however large the NFA is.
+ *
+ * NFAs of up to 64 states keep their active set in a single long.
+ *
+ * Like NFAMatcher, a BitSetMatcher allocates its sets once and is not safe to
+ * use from more than one thread at a time. The masks never change, though,
+ * so each thread can have its own matcher sharing them.
+ *
+ * static final int MAX_STATES: the largest NFA a BitSetMatcher is built for;
+ *      past that a set is more than 64 longs, and ORing masks costs more
+ *      than walking edges
+ * NFASnapshot graph: the snapshot being run
+ * Alphabet alphabet: maps code points to character classes
+ * int words: the number of longs in a state set
+ * long[][] sources: for each class, the set of states with an edge on that
+ *      class
+ * int[][] ranks: for each class, the number of states with an edge on that
+ *      class in the words of sources before each word
+ * long[][] masks: for each class, the mask of every state with an edge on
+ *      that class, words longs each, in state order
+ * int[][] spans: for each class, the first word of each mask that isn't
+ *      zero and one past the last, two ints per mask
+ * long[] start, accept: the start set and the accept states
+ * long[] current, next: the active set and the set being built
+ * long single: the active set for NFAs of up to 64 states
+ * long buildWork: the edges and words gone through working out the masks
+ * long work: the words and masks gone through by every step since the
+ *      matcher was built
+ */
+public class BitSetMatcher
+{
+    public static final int MAX_STATES = 4096;
+
+    private final NFASnapshot graph;
+    private final Alphabet alphabet;
+    private final int words;
+    private final long[][] sources;
+    private final int[][] ranks;
+    private final long[][] masks;
+    private final int[][] spans;
+    private final long[] start;
+    private final long[] accept;
+    private long[] current;
+    private long[] next;
+    private long single;
+    private final long buildWork;
+    private long work;
+
+    /**
+     * Constructor for BitSetMatcher. Precomputes the successor mask of every
+     * state on every character class it has an edge on.
+     *
+     * NFASnapshot graph: the snapshot to run, with at most MAX_STATES states
+     *
+     * Throws IllegalStateException if the snapshot has more than MAX_STATES
+     * states.
+     */
+    public BitSetMatcher(NFASnapshot graph)
+    {
+        int stateCount = graph.getStateCount();
+        if (stateCount > MAX_STATES)
+        {
+            throw new IllegalStateException("NFA has " + stateCount
+                + " states, more than the bitset engine's limit of " + MAX_STATES);
+        }
+        this.graph = graph;
+        alphabet = new Alphabet(graph);
+        words = (stateCount + 63) / 64;
+        int classCount = alphabet.getClassCount();
+
+        start = new long[words];
+        addEpsilonClosure(graph.getStartState(), start, 0);
+        accept = new long[words];
+        for (int s = 0; s < stateCount; s++)
+        {
+            if (graph.isAcceptState(s))
+            {
+                accept[s >>> 6] |= 1L << s;
+            }
+        }
+
+        // find the states with an edge on each class
+        sources = new long[classCount][words];
+        for (int s = 0; s < stateCount; s++)
+        {
+            for (int e = graph.getEdgeStart(s); e < graph.getEdgeStart(s + 1); e++)
+            {
+                if (graph.getEdgeChar(e) != NFASnapshot.EPSILON)
+                {
+                    sources[alphabet.classOf(graph.getEdgeChar(e))][s >>> 6] |= 1L << s;
+                }
+            }
+        }
+
+        // then give each of them a mask, in state order
+        ranks = new int[classCount][words];
+        masks = new long[classCount][];
+        for (int c = 0; c < classCount; c++)
+        {
+            int count = 0;
+            for (int v = 0; v < words; v++)
+            {
+                ranks[c][v] = count;
+                count += Long.bitCount(sources[c][v]);
+            }
+            masks[c] = new long[count * words];
+        }
+        for (int s = 0; s < stateCount; s++)
+        {
+            for (int e = graph.getEdgeStart(s); e < graph.getEdgeStart(s + 1); e++)
+            {
+                if (graph.getEdgeChar(e) != NFASnapshot.EPSILON)
+                {
+                    // every code point of a class goes to the same states, so
+                    // the edges on any of them give the class's mask
+                    int c = alphabet.classOf(graph.getEdgeChar(e));
+                    addEpsilonClosure(graph.getEdgeTarget(e), masks[c], rankOf(c, s) * words);
+                }
+            }
+        }
+
+        // and find the words of each mask that need ORing in
+        spans = new int[classCount][];
+        for (int c = 0; c < classCount; c++)
+        {
+            int count = masks[c].length / words;
+            spans[c] = new int[count * 2];
+            for (int r = 0; r < count; r++)
+            {
+                int first = 0;
+                int end = words;
+                while (first < end && masks[c][r * words + first] == 0)
+                {
+                    first++;
+                }
+                while (end > first && masks[c][r * words + end - 1] == 0)
+                {
+                    end--;
+                }
+                spans[c][r * 2] = first;
+                spans[c][r * 2 + 1] = end;
+            }
+        }
+
+        long maskWords = 0;
+        for (int c = 0; c < classCount; c++)
+        {
+            maskWords += masks[c].length;
+        }
+        buildWork = stateCount + 2L * graph.getEdgeStart(stateCount)
+            + 2L * classCount * words + 2 * maskWords;
+
+        current = new long[words];
+        next = new long[words];
+        reset();
+    }
+
+    /**
+     * Alternate constructor for BitSetMatcher. Shares the masks of another
+     * matcher for the same snapshot, allocating only new state sets, so that
+     * another thread can run the snapshot without working the masks out again.
+     *
+     * BitSetMatcher other: the matcher whose masks to share
+     */
+    public BitSetMatcher(BitSetMatcher other)
+    {
+        graph = other.graph;
+        alphabet = other.alphabet;
+        words = other.words;
+        sources = other.sources;
+        ranks = other.ranks;
+        masks = other.masks;
+        spans = other.spans;
+        buildWork = other.buildWork;
+        start = other.start;
+        accept = other.accept;
+        current = new long[words];
+        next = new long[words];
+        reset();
+    }
+
+    /**
+     * Returns the snapshot the matcher runs.
+     */
+    public NFASnapshot getSnapshot()
+    {
+        return graph;
+    }
+
+    /**
+     * Returns the number of edges and words gone through working out the
+     * masks, for charging to a run's budget.
+     */
+    public long getBuildWork()
+    {
+        return buildWork;
+    }
+
+    /**
+     * Returns the number of words and masks gone through by every step since
+     * the matcher was built, for charging to a run's budget.
+     */
+    public long getWork()
+    {
+        return work;
+    }
+
+    /**
+     * Resets the matcher so that the active states are the epsilon closure of
+     * the start state.
+     */
+    public void reset()
+    {
+        System.arraycopy(start, 0, current, 0, words);
+        single = start[0];
+    }
+
+    /**
+     * Moves the active states along the given code point by ORing together
+     * the successor masks of every active state.
+     *
+     * int codePoint: the code point to consume
+     *
+     * Returns false if no state is active afterwards, so nothing can accept.
+     */
+    public boolean step(int codePoint)
+    {
+        int c = alphabet.classOf(codePoint);
+        long[] classMasks = masks[c];
+        long[] classSources = sources[c];
+        if (words == 1)
+        {
+            long active = single & classSources[0];
+            long reached = 0;
+            work += 1 + Long.bitCount(active);
+            while (active != 0)
+            {
+                long bit = active & -active;
+                reached |= classMasks[Long.bitCount(classSources[0] & (bit - 1))];
+                active ^= bit;
+            }
+            single = reached;
+            return reached != 0;
+        }
+
+        long[] target = next;
+        work += 3 * words;
+        for (int w = 0; w < words; w++)
+        {
+            target[w] = 0;
+        }
+        int[] classRanks = ranks[c];
+        int[] classSpans = spans[c];
+        long any = 0;
+        for (int v = 0; v < words; v++)
+        {
+            long active = current[v] & classSources[v];
+            while (active != 0)
+            {
+                long bit = active & -active;
+                int rank = classRanks[v] + Long.bitCount(classSources[v] & (bit - 1));
+                int base = rank * words;
+                work += 1 + classSpans[rank * 2 + 1] - classSpans[rank * 2];
+                for (int w = classSpans[rank * 2]; w < classSpans[rank * 2 + 1]; w++)
+                {
+                    target[w] |= classMasks[base + w];
+                }
+                active ^= bit;
+            }
+        }
+        for (int w = 0; w < words; w++)
+        {
+            any |= target[w];
+        }
+        next = current;
+        current = target;
+        return any != 0;
+    }
+
+    /**
+     * Returns true if any active state is an accept state.
+     */
+    public boolean isAccepting()
+    {
+        if (words == 1)
+        {
+            return (single & accept[0]) != 0;
+        }
+        for (int w = 0; w < words; w++)
+        {
+            if ((current[w] & accept[w]) != 0)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if no state is active, so no more input can be accepted.
+     */
+    public boolean isDead()
+    {
+        if (words == 1)
+        {
+            return single == 0;
+        }
+        for (int w = 0; w < words; w++)
+        {
+            if (current[w] != 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of active states.
+     */
+    public int getActiveStateCount()
+    {
+        if (words == 1)
+        {
+            return Long.bitCount(single);
+        }
+        int count = 0;
+        for (int w = 0; w < words; w++)
+        {
+            count += Long.bitCount(current[w]);
+        }
+        return count;
+    }
+
+    /**
+     * Runs the NFA from the start state over the code points of the input
+     * from the given offset to the end. Surrogate pairs are read as a single
+     * code point.
+     *
+     * CharSequence input: the input to run the NFA on
+     * int offset: the index of the first char to read
+     *
+     * Returns true if the NFA accepts the input and false otherwise.
+     */
+    public boolean matches(CharSequence input, int offset)
+    {
+        reset();
+        int length = input.length();
+        int i = offset;
+        while (i < length)
+        {
+            int c = input.charAt(i++);
+            if (Character.isHighSurrogate((char) c) && i < length
+                && Character.isLowSurrogate(input.charAt(i)))
+            {
+                c = Character.toCodePoint((char) c, input.charAt(i++));
+            }
+            if (!step(c))
+            {
+                return false;
+            }
+        }
+        return isAccepting();
+    }
+
+    /**
+     * Runs the NFA from the start state over part of an array of code points.
+     *
+     * int[] codePoints: the input to run the NFA on
+     * int offset: the index of the first code point to read
+     * int length: the number of code points to read
+     *
+     * Returns true if the NFA accepts the input and false otherwise.
+     */
+    public boolean matches(int[] codePoints, int offset, int length)
+    {
+        reset();
+        for (int i = offset; i < offset + length; i++)
+        {
+            if (!step(codePoints[i]))
+            {
+                return false;
+            }
+        }
+        return isAccepting();
+    }
+
+    /**
+     * Returns the index among the states with an edge on a class of one of
+     * them.
+     *
+     * int c: the class
+     * int s: a state with an edge on the class
+     */
+    private int rankOf(int c, int s)
+    {
+        return ranks[c][s >>> 6] + Long.bitCount(sources[c][s >>> 6] & ((1L << s) - 1));
+    }
+
+    /**
+     * Sets the bits of a state's epsilon closure in a state set.
+     *
+     * int state: the index of the state
+     * long[] set: the array holding the state set to add to
+     * int offset: the index of the set's first word in the array
+     */
+    private void addEpsilonClosure(int state, long[] set, int offset)
+    {
+        for (int q : graph.getEpsilonClosure(state))
+        {
+            set[offset + (q >>> 6)] |= 1L << q;
+        }
+    }
+}
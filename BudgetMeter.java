@@ -0,0 +1,107 @@
+/**
+ * Keeps count of the work done by one run of an NFA against a RunBudget.
+ * Engines call step() as they go, with the number of states and edges they
+ * have gone through, and stop as soon as it returns false. The clock is only
+ * read once about CLOCK_INTERVAL steps of work have been done since the last
+ * read, since reading it costs more than a step does, so the time between
+ * reads doesn't depend on how costly each code point of the input is.
+ *
+ * A BudgetMeter is made for a single run and is not safe to use from more
+ * than one thread at a time.
+ *
+ * static final int CLOCK_INTERVAL: the steps of work between reads of the
+ *      clock
+ * RunBudget budget: the caps being enforced
+ * long deadline: the System.nanoTime() value the run must end by
+ * boolean hasDeadline: true if the budget has a time limit
+ * long steps: the number of steps taken so far
+ * long nextClockRead: the step count at which to read the clock next
+ * boolean exceeded: true once any cap has been gone over
+ */
+public class BudgetMeter
+{
+    public static final int CLOCK_INTERVAL = 1024;
+
+    private final RunBudget budget;
+    private final long deadline;
+    private final boolean hasDeadline;
+    private long steps;
+    private long nextClockRead = CLOCK_INTERVAL;
+    private boolean exceeded;
+
+    /**
+     * Constructor for BudgetMeter. The time limit starts now.
+     *
+     * RunBudget budget: the caps to enforce
+     */
+    public BudgetMeter(RunBudget budget)
+    {
+        this.budget = budget;
+        // times too long to overflow nanoTime are as good as no limit
+        hasDeadline = budget.getTimeoutMillis() < Long.MAX_VALUE / 4000000L;
+        deadline = hasDeadline ? System.nanoTime() + budget.getTimeoutMillis() * 1000000L : 0;
+    }
+
+    /**
+     * Counts one step.
+     *
+     * long activeStates: the number of states active after the step
+     *
+     * Returns false if the budget has been gone over, now or before, and the
+     * run should stop.
+     */
+    public boolean step(long activeStates)
+    {
+        return step(1, activeStates);
+    }
+
+    /**
+     * Counts a number of steps at once. Counting no steps only checks the
+     * active states, as for the states active before the first step.
+     *
+     * long count: the number of steps taken
+     * long activeStates: the number of states active after the steps
+     *
+     * Returns false if the budget has been gone over, now or before, and the
+     * run should stop.
+     */
+    public boolean step(long count, long activeStates)
+    {
+        if (exceeded)
+        {
+            return false;
+        }
+        steps += count;
+        if (steps > budget.getMaxSteps() || activeStates > budget.getMaxActiveStates())
+        {
+            exceeded = true;
+            return false;
+        }
+        if (hasDeadline && steps >= nextClockRead)
+        {
+            nextClockRead = steps + CLOCK_INTERVAL;
+            if (System.nanoTime() - deadline >= 0)
+            {
+                exceeded = true;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the budget has been gone over.
+     */
+    public boolean isExceeded()
+    {
+        return exceeded;
+    }
+
+    /**
+     * Returns the number of steps taken so far.
+     */
+    public long getSteps()
+    {
+        return steps;
+    }
+}
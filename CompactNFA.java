@@ -0,0 +1,314 @@
+/**
+ * CompactNFA is a saved NFA as NFAParser reads it, kept in flat arrays
+ * indexed by state and transition number instead of State and Transition
+ * objects. An NFA with millions of states takes a few dozen bytes per state
+ * this way, and nothing it does touches Swing or AWT. It can be turned into
+ * an NFASnapshot to be run, or loaded into an NFA with NFA.load when the
+ * editor needs the real objects.
+ *
+ * The states and transitions are numbered in the order they were read, which
+ * is the order NFA.save writes them, so state 0 is the start state.
+ *
+ * int stateCount: the number of states
+ * int[] xs, ys: the position of each state
+ * boolean[] accept: true at the index of each accept state
+ * int transitionCount: the number of transitions
+ * int[] transitionFrom, transitionTo: the ends of each transition
+ * boolean[] tangent: true at the index of each transition drawn tangent
+ * boolean[] ruleArgument: true at the index of each transition saved with a
+ *      rule argument, even an empty one
+ * int[] ruleStart: the rules of transition t are ruleChars[ruleStart[t]] up
+ *      to ruleChars[ruleStart[t + 1]]
+ * int[] ruleChars: the code point of each rule, epsilon being U+025B
+ * int ruleCount: the number of rules
+ */
+public class CompactNFA
+{
+    private int stateCount;
+    private int[] xs = new int[64];
+    private int[] ys = new int[64];
+    private boolean[] accept = new boolean[64];
+    private int transitionCount;
+    private int[] transitionFrom = new int[64];
+    private int[] transitionTo = new int[64];
+    private boolean[] tangent = new boolean[64];
+    private boolean[] ruleArgument = new boolean[64];
+    private int[] ruleStart = new int[65];
+    private int[] ruleChars = new int[64];
+    private int ruleCount;
+
+    /**
+     * Returns the number of states.
+     */
+    public int getStateCount()
+    {
+        return stateCount;
+    }
+
+    /**
+     * Returns the x position of a state.
+     *
+     * int s: the number of the state
+     */
+    public int getXPos(int s)
+    {
+        return xs[s];
+    }
+
+    /**
+     * Returns the y position of a state.
+     *
+     * int s: the number of the state
+     */
+    public int getYPos(int s)
+    {
+        return ys[s];
+    }
+
+    /**
+     * Returns true if a state is an accept state and false otherwise.
+     *
+     * int s: the number of the state
+     */
+    public boolean isAcceptState(int s)
+    {
+        return accept[s];
+    }
+
+    /**
+     * Returns the number of transitions.
+     */
+    public int getTransitionCount()
+    {
+        return transitionCount;
+    }
+
+    /**
+     * Returns the number of the state a transition comes out of.
+     *
+     * int t: the number of the transition
+     */
+    public int getTransitionFrom(int t)
+    {
+        return transitionFrom[t];
+    }
+
+    /**
+     * Returns the number of the state a transition goes to.
+     *
+     * int t: the number of the transition
+     */
+    public int getTransitionTo(int t)
+    {
+        return transitionTo[t];
+    }
+
+    /**
+     * Returns true if a transition is drawn tangent to its states and false
+     * otherwise.
+     *
+     * int t: the number of the transition
+     */
+    public boolean isTangent(int t)
+    {
+        return tangent[t];
+    }
+
+    /**
+     * Returns true if a transition was saved with a rule argument, even an
+     * empty one, and false if the argument was left off.
+     *
+     * int t: the number of the transition
+     */
+    public boolean hasRuleArgument(int t)
+    {
+        return ruleArgument[t];
+    }
+
+    /**
+     * Returns the rules of a transition as a string with one code point per
+     * rule, the form Transition.buildRulesFromString reads.
+     *
+     * int t: the number of the transition
+     */
+    public String getRuleString(int t)
+    {
+        return new String(ruleChars, ruleStart[t], ruleStart[t + 1] - ruleStart[t]);
+    }
+
+    /**
+     * Adds a state after the states added so far.
+     *
+     * int x, y: the position of the state
+     * boolean acceptState: true if the state is an accept state
+     */
+    void addState(int x, int y, boolean acceptState)
+    {
+        if (stateCount == xs.length)
+        {
+            int size = Math.max(64, stateCount * 2);
+            xs = copyOf(xs, size);
+            ys = copyOf(ys, size);
+            accept = copyOf(accept, size);
+        }
+        xs[stateCount] = x;
+        ys[stateCount] = y;
+        accept[stateCount] = acceptState;
+        stateCount++;
+    }
+
+    /**
+     * Adds a transition after the transitions added so far, with no rules
+     * yet. Its rules are added with addRule.
+     *
+     * int from, to: the numbers of the states the transition joins
+     * boolean isTangent: true if the transition is drawn tangent
+     * boolean hasRuleArgument: true if the transition was saved with a rule
+     *      argument
+     */
+    void addTransition(int from, int to, boolean isTangent, boolean hasRuleArgument)
+    {
+        if (transitionCount == transitionFrom.length)
+        {
+            int size = Math.max(64, transitionCount * 2);
+            transitionFrom = copyOf(transitionFrom, size);
+            transitionTo = copyOf(transitionTo, size);
+            tangent = copyOf(tangent, size);
+            ruleArgument = copyOf(ruleArgument, size);
+            ruleStart = copyOf(ruleStart, size + 1);
+        }
+        transitionFrom[transitionCount] = from;
+        transitionTo[transitionCount] = to;
+        tangent[transitionCount] = isTangent;
+        ruleArgument[transitionCount] = hasRuleArgument;
+        transitionCount++;
+        ruleStart[transitionCount] = ruleCount;
+    }
+
+    /**
+     * Adds a rule to the last transition added, unless the transition
+     * already has it, as Transition.buildRulesFromString only keeps a rule
+     * once.
+     *
+     * int c: the code point of the rule
+     */
+    void addRule(int c)
+    {
+        for (int r = ruleStart[transitionCount - 1]; r < ruleCount; r++)
+        {
+            if (ruleChars[r] == c)
+            {
+                return;
+            }
+        }
+        if (ruleCount == ruleChars.length)
+        {
+            ruleChars = copyOf(ruleChars, Math.max(64, ruleCount * 2));
+        }
+        ruleChars[ruleCount++] = c;
+        ruleStart[transitionCount] = ruleCount;
+    }
+
+    /**
+     * Shrinks the arrays to the states, transitions and rules added, once
+     * everything has been added.
+     */
+    void trimToSize()
+    {
+        xs = copyOf(xs, stateCount);
+        ys = copyOf(ys, stateCount);
+        accept = copyOf(accept, stateCount);
+        transitionFrom = copyOf(transitionFrom, transitionCount);
+        transitionTo = copyOf(transitionTo, transitionCount);
+        tangent = copyOf(tangent, transitionCount);
+        ruleArgument = copyOf(ruleArgument, transitionCount);
+        ruleStart = copyOf(ruleStart, transitionCount + 1);
+        ruleChars = copyOf(ruleChars, ruleCount);
+    }
+
+    /**
+     * Builds the snapshot of the NFA, the same one NFA.getSnapshot() would
+     * build after the NFA was loaded with NFA.load. Epsilon self loops are
+     * dropped, and the edges of each state are kept in the order they were
+     * read.
+     *
+     * Returns the snapshot.
+     */
+    public NFASnapshot toSnapshot()
+    {
+        // count the edges leaving each state
+        int[] edgeStart = new int[stateCount + 1];
+        for (int t = 0; t < transitionCount; t++)
+        {
+            for (int r = ruleStart[t]; r < ruleStart[t + 1]; r++)
+            {
+                if (isEdge(t, r))
+                {
+                    edgeStart[transitionFrom[t] + 1]++;
+                }
+            }
+        }
+        for (int s = 0; s < stateCount; s++)
+        {
+            edgeStart[s + 1] += edgeStart[s];
+        }
+
+        // then put each edge in its state's range
+        int[] fill = new int[stateCount];
+        System.arraycopy(edgeStart, 0, fill, 0, stateCount);
+        int[] chars = new int[edgeStart[stateCount]];
+        int[] targets = new int[edgeStart[stateCount]];
+        for (int t = 0; t < transitionCount; t++)
+        {
+            for (int r = ruleStart[t]; r < ruleStart[t + 1]; r++)
+            {
+                if (isEdge(t, r))
+                {
+                    int e = fill[transitionFrom[t]]++;
+                    // epsilon is U+025B
+                    chars[e] = ruleChars[r] == 0x025B ? NFASnapshot.EPSILON : ruleChars[r];
+                    targets[e] = transitionTo[t];
+                }
+            }
+        }
+        return new NFASnapshot(0, 0, copyOf(accept, stateCount), edgeStart, chars, targets);
+    }
+
+    /**
+     * Returns true if a rule of a transition is an edge of the snapshot,
+     * which is every rule but epsilon on a self loop.
+     *
+     * int t: the number of the transition
+     * int r: the index of the rule in ruleChars
+     */
+    private boolean isEdge(int t, int r)
+    {
+        return ruleChars[r] != 0x025B || transitionFrom[t] != transitionTo[t];
+    }
+
+    /**
+     * Returns a copy of an array with a new length.
+     *
+     * int[] a: the array to copy
+     * int length: the length of the copy
+     */
+    private static int[] copyOf(int[] a, int length)
+    {
+        int[] copy = new int[length];
+        System.arraycopy(a, 0, copy, 0, Math.min(a.length, length));
+        return copy;
+    }
+
+    /**
+     * Returns a copy of an array with a new length.
+     *
+     * boolean[] a: the array to copy
+     * int length: the length of the copy
+     */
+    private static boolean[] copyOf(boolean[] a, int length)
+    {
+        boolean[] copy = new boolean[length];
+        System.arraycopy(a, 0, copy, 0, Math.min(a.length, length));
+        return copy;
+    }
+}
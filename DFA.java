@@ -0,0 +1,742 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A deterministic automaton compiled from an NFA snapshot by subset
+ * construction. Transitions are kept in one dense table with a row for every
+ * state and a column for every character class of the alphabet, so matching
+ * is a single array lookup per character. A DFA never changes once it is
+ * built, so it can be reused by as many runs as needed.
+ *
+ * static final int DEAD_STATE: the state for the empty set of NFA states,
+ *      which never accepts and only goes to itself
+ * static final int DEFAULT_MAX_STATES: the largest DFA compile() builds
+ *      unless told otherwise
+ * static final long MAX_TABLE_CELLS: the most entries the table of a DFA
+ *      compile() builds may have, whatever its number of states, so the
+ *      table never takes more than 1GB and states * classes always fits in
+ *      an int
+ * Alphabet alphabet: maps code points to the columns of the table
+ * int stateCount: the number of states, including DEAD_STATE
+ * int classCount: the number of columns of the table
+ * int startState: the state the DFA starts in
+ * int[] table: the state reached from state s on class c is at
+ *      table[s * classCount + c]
+ * boolean[] acceptStates: true at the index of each accept state
+ */
+public class DFA
+{
+    public static final int DEAD_STATE = 0;
+    public static final int DEFAULT_MAX_STATES = 1 << 20;
+    public static final long MAX_TABLE_CELLS = 1L << 28;
+
+    private final Alphabet alphabet;
+    private final int stateCount;
+    private final int classCount;
+    private final int startState;
+    private final int[] table;
+    private final boolean[] acceptStates;
+
+    /**
+     * Constructor for DFA. Takes ownership of the given table and accept
+     * states, which must not be changed afterwards.
+     *
+     * Alphabet alphabet: maps code points to the columns of the table
+     * int stateCount: the number of states, including DEAD_STATE
+     * int startState: the state the DFA starts in
+     * int[] table: the transition table, stateCount rows of classCount entries
+     * boolean[] acceptStates: true at the index of each accept state
+     */
+    public DFA(Alphabet alphabet, int stateCount, int startState, int[] table, boolean[] acceptStates)
+    {
+        this.alphabet = alphabet;
+        this.stateCount = stateCount;
+        this.classCount = alphabet.getClassCount();
+        this.startState = startState;
+        this.table = table;
+        this.acceptStates = acceptStates;
+    }
+
+    /**
+     * Compiles an NFA snapshot into a DFA with at most DEFAULT_MAX_STATES
+     * states.
+     *
+     * NFASnapshot graph: the snapshot to compile
+     *
+     * Returns the compiled DFA.
+     */
+    public static DFA compile(NFASnapshot graph)
+    {
+        return compile(graph, DEFAULT_MAX_STATES);
+    }
+
+    /**
+     * Compiles an NFA snapshot into a DFA by subset construction. Each DFA
+     * state is a set of NFA states closed under epsilon edges, and the sets
+     * are discovered breadth first from the epsilon closure of the start
+     * state.
+     *
+     * NFASnapshot graph: the snapshot to compile
+     * int maxStates: the most states the DFA may have
+     *
+     * Returns the compiled DFA. Throws IllegalStateException if the DFA
+     * would need more than maxStates states, or a table of more than
+     * MAX_TABLE_CELLS entries.
+     */
+    public static DFA compile(NFASnapshot graph, int maxStates)
+    {
+        return compile(graph, maxStates, false);
+    }
+
+    /**
+     * Compiles an NFA snapshot into a DFA that finds matches anywhere in its
+     * input rather than only from the start. The epsilon closure of the start
+     * state is added to every DFA state, as if the NFA could start over at
+     * any character, so the DFA is in an accept state exactly when some
+     * suffix of the input read so far is accepted by the NFA.
+     *
+     * NFASnapshot graph: the snapshot to compile
+     *
+     * Returns the compiled DFA. Throws IllegalStateException if the DFA
+     * would need more than DEFAULT_MAX_STATES states, or a table of more than
+     * MAX_TABLE_CELLS entries.
+     */
+    public static DFA compileUnanchored(NFASnapshot graph)
+    {
+        return compile(graph, DEFAULT_MAX_STATES, true);
+    }
+
+    /**
+     * Compiles an NFA snapshot into a DFA by subset construction, either
+     * anchored at the start of the input or unanchored.
+     *
+     * NFASnapshot graph: the snapshot to compile
+     * int maxStates: the most states the DFA may have
+     * boolean unanchored: true to add the start state's epsilon closure to
+     *      every DFA state
+     *
+     * Returns the compiled DFA. Throws IllegalStateException if the DFA
+     * would need more than maxStates states, or a table of more than
+     * MAX_TABLE_CELLS entries.
+     */
+    private static DFA compile(NFASnapshot graph, int maxStates, boolean unanchored)
+    {
+        Alphabet alphabet = new Alphabet(graph);
+        int classCount = alphabet.getClassCount();
+
+        ArrayList<int[]> sets = new ArrayList<int[]>();
+        HashMap<StateSet, Integer> ids = new HashMap<StateSet, Integer>();
+        int[] table = new int[16 * classCount];
+        boolean[] accept = new boolean[16];
+
+        int[] empty = new int[0];
+        sets.add(empty);
+        ids.put(new StateSet(empty), DEAD_STATE);
+
+        int[] start = graph.getEpsilonClosure(graph.getStartState()).clone();
+        Arrays.sort(start);
+        sets.add(start);
+        ids.put(new StateSet(start), 1);
+
+        int[] buffer = new int[graph.getStateCount()];
+        int[] mark = new int[graph.getStateCount()];
+        int stamp = 0;
+
+        for (int d = 0; d < sets.size(); d++)
+        {
+            int[] set = sets.get(d);
+            // worked out in longs, since states * classes can overflow an int
+            long cells = (long) (d + 1) * classCount;
+            if (cells > table.length)
+            {
+                int length = (int) Math.min(MAX_TABLE_CELLS, Math.max(cells, 2L * table.length));
+                table = Arrays.copyOf(table, length);
+                accept = Arrays.copyOf(accept, Math.max(d + 1, accept.length * 2));
+            }
+            for (int s : set)
+            {
+                if (graph.isAcceptState(s))
+                {
+                    accept[d] = true;
+                }
+            }
+
+            for (int c = 0; c < classCount; c++)
+            {
+                if (d == DEAD_STATE)
+                {
+                    // the dead state only ever goes to itself
+                    table[c] = DEAD_STATE;
+                    continue;
+                }
+                stamp++;
+                int size = move(graph, set, alphabet.getRepresentative(c), buffer, mark, stamp);
+                if (unanchored)
+                {
+                    for (int q : start)
+                    {
+                        if (mark[q] != stamp)
+                        {
+                            mark[q] = stamp;
+                            buffer[size++] = q;
+                        }
+                    }
+                }
+                int[] target = Arrays.copyOf(buffer, size);
+                Arrays.sort(target);
+
+                StateSet key = new StateSet(target);
+                Integer id = ids.get(key);
+                if (id == null)
+                {
+                    if (sets.size() >= maxStates)
+                    {
+                        throw new IllegalStateException("DFA would have more than " + maxStates + " states");
+                    }
+                    if ((long) (sets.size() + 1) * classCount > MAX_TABLE_CELLS)
+                    {
+                        throw new IllegalStateException("DFA would have more than " + sets.size() + " states of "
+                            + classCount + " classes, a table of more than " + MAX_TABLE_CELLS + " entries");
+                    }
+                    id = sets.size();
+                    sets.add(target);
+                    ids.put(key, id);
+                }
+                table[d * classCount + c] = id;
+            }
+        }
+
+        int stateCount = sets.size();
+        return new DFA(alphabet, stateCount, 1,
+                Arrays.copyOf(table, stateCount * classCount),
+                Arrays.copyOf(accept, stateCount));
+    }
+
+    /**
+     * Finds every NFA state reached from a set of states by consuming the
+     * given code point and then following epsilon edges.
+     *
+     * NFASnapshot graph: the snapshot being compiled
+     * int[] set: the NFA states to move from
+     * int codePoint: the code point to consume, or -1 to consume nothing
+     * int[] buffer: receives the states reached
+     * int[] mark: mark[s] == stamp when s is already in buffer
+     * int stamp: the mark value for this move
+     *
+     * Returns the number of states written to buffer.
+     */
+    static int move(NFASnapshot graph, int[] set, int codePoint, int[] buffer, int[] mark, int stamp)
+    {
+        int size = 0;
+        if (codePoint < 0)
+        {
+            return size;
+        }
+        for (int s : set)
+        {
+            for (int e = graph.getEdgeStart(s); e < graph.getEdgeStart(s + 1); e++)
+            {
+                if (graph.getEdgeChar(e) == codePoint)
+                {
+                    int[] closure = graph.getEpsilonClosure(graph.getEdgeTarget(e));
+                    for (int q : closure)
+                    {
+                        if (mark[q] != stamp)
+                        {
+                            mark[q] = stamp;
+                            buffer[size++] = q;
+                        }
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Builds the smallest DFA that accepts the same strings, using Hopcroft's
+     * partition refinement. Unreachable states are dropped first, then states
+     * are split into blocks until no character class can tell two states of a
+     * block apart, and each block becomes one state.
+     *
+     * The states of the result are numbered canonically: the dead state is
+     * DEAD_STATE, the start state is 1 (unless it is the dead state), and the
+     * rest are numbered in the order a breadth first search from the start
+     * state reaches them, trying classes in order. Two DFAs over the same
+     * alphabet that accept the same strings minimize to identical tables.
+     *
+     * Returns the minimized DFA.
+     */
+    public DFA minimize()
+    {
+        int k = classCount;
+
+        // number the reachable states, always keeping the dead state
+        int[] index = new int[stateCount];
+        Arrays.fill(index, -1);
+        int[] order = new int[stateCount];
+        int n = 0;
+        index[DEAD_STATE] = n;
+        order[n++] = DEAD_STATE;
+        if (index[startState] < 0)
+        {
+            index[startState] = n;
+            order[n++] = startState;
+        }
+        for (int i = 0; i < n; i++)
+        {
+            for (int c = 0; c < k; c++)
+            {
+                int t = table[order[i] * k + c];
+                if (index[t] < 0)
+                {
+                    index[t] = n;
+                    order[n++] = t;
+                }
+            }
+        }
+
+        int[] delta = new int[n * k];
+        for (int i = 0; i < n; i++)
+        {
+            for (int c = 0; c < k; c++)
+            {
+                delta[i * k + c] = index[table[order[i] * k + c]];
+            }
+        }
+
+        // the sources of the edges into state t on class c are
+        // inverseSources[inverseStart[c * n + t]] up to inverseStart[c * n + t + 1]
+        int[] inverseStart = new int[n * k + 1];
+        for (int i = 0; i < n; i++)
+        {
+            for (int c = 0; c < k; c++)
+            {
+                inverseStart[c * n + delta[i * k + c] + 1]++;
+            }
+        }
+        for (int i = 0; i < n * k; i++)
+        {
+            inverseStart[i + 1] += inverseStart[i];
+        }
+        int[] inverseSources = new int[n * k];
+        int[] fill = Arrays.copyOf(inverseStart, n * k);
+        for (int i = 0; i < n; i++)
+        {
+            for (int c = 0; c < k; c++)
+            {
+                inverseSources[fill[c * n + delta[i * k + c]]++] = i;
+            }
+        }
+
+        // the states of block b are elements[first[b]] up to elements[past[b]],
+        // and during a split the marked ones are moved before marked[b]
+        int[] elements = new int[n];
+        int[] location = new int[n];
+        int[] blockOf = new int[n];
+        int[] first = new int[n];
+        int[] past = new int[n];
+        int[] marked = new int[n];
+        int blockCount = 0;
+
+        int acceptCount = 0;
+        for (int i = 0; i < n; i++)
+        {
+            if (acceptStates[order[i]])
+            {
+                acceptCount++;
+            }
+        }
+        int a = 0;
+        int r = acceptCount;
+        for (int i = 0; i < n; i++)
+        {
+            int at = acceptStates[order[i]] ? a++ : r++;
+            elements[at] = i;
+            location[i] = at;
+        }
+        if (acceptCount > 0)
+        {
+            first[blockCount] = 0;
+            past[blockCount] = acceptCount;
+            blockCount++;
+        }
+        if (acceptCount < n)
+        {
+            first[blockCount] = acceptCount;
+            past[blockCount] = n;
+            blockCount++;
+        }
+        for (int b = 0; b < blockCount; b++)
+        {
+            marked[b] = first[b];
+            for (int i = first[b]; i < past[b]; i++)
+            {
+                blockOf[elements[i]] = b;
+            }
+        }
+
+        // the work list holds splitters (block, class) as block * k + class
+        boolean[] waiting = new boolean[n * k];
+        int[] work = new int[n * k];
+        int workSize = 0;
+        if (blockCount == 2)
+        {
+            int smaller = past[0] - first[0] <= past[1] - first[1] ? 0 : 1;
+            for (int c = 0; c < k; c++)
+            {
+                waiting[smaller * k + c] = true;
+                work[workSize++] = smaller * k + c;
+            }
+        }
+
+        int[] splitters = new int[n];
+        int[] mark = new int[n];
+        int stamp = 0;
+        int[] touched = new int[n];
+
+        while (workSize > 0)
+        {
+            int splitter = work[--workSize];
+            waiting[splitter] = false;
+            int b = splitter / k;
+            int c = splitter % k;
+
+            // find every state with an edge on c into block b
+            stamp++;
+            int splitterSize = 0;
+            for (int i = first[b]; i < past[b]; i++)
+            {
+                int key = c * n + elements[i];
+                for (int j = inverseStart[key]; j < inverseStart[key + 1]; j++)
+                {
+                    int src = inverseSources[j];
+                    if (mark[src] != stamp)
+                    {
+                        mark[src] = stamp;
+                        splitters[splitterSize++] = src;
+                    }
+                }
+            }
+
+            // move those states to the front of their blocks
+            int touchedCount = 0;
+            for (int i = 0; i < splitterSize; i++)
+            {
+                int s = splitters[i];
+                int bb = blockOf[s];
+                if (marked[bb] == first[bb])
+                {
+                    touched[touchedCount++] = bb;
+                }
+                int from = location[s];
+                int to = marked[bb]++;
+                int other = elements[to];
+                elements[to] = s;
+                location[s] = to;
+                elements[from] = other;
+                location[other] = from;
+            }
+
+            // split every block that is only partly marked
+            for (int i = 0; i < touchedCount; i++)
+            {
+                int bb = touched[i];
+                if (marked[bb] == past[bb])
+                {
+                    marked[bb] = first[bb];
+                    continue;
+                }
+                int nb = blockCount++;
+                first[nb] = first[bb];
+                past[nb] = marked[bb];
+                marked[nb] = first[nb];
+                first[bb] = past[nb];
+                marked[bb] = first[bb];
+                for (int j = first[nb]; j < past[nb]; j++)
+                {
+                    blockOf[elements[j]] = nb;
+                }
+
+                int smaller = past[nb] - first[nb] <= past[bb] - first[bb] ? nb : bb;
+                for (int cc = 0; cc < k; cc++)
+                {
+                    int add = waiting[bb * k + cc] ? nb : smaller;
+                    if (!waiting[add * k + cc])
+                    {
+                        waiting[add * k + cc] = true;
+                        work[workSize++] = add * k + cc;
+                    }
+                }
+            }
+        }
+
+        // number the blocks canonically by a breadth first search
+        int[] blockId = new int[blockCount];
+        Arrays.fill(blockId, -1);
+        int[] queue = new int[blockCount];
+        int deadBlock = blockOf[index[DEAD_STATE]];
+        int startBlock = blockOf[index[startState]];
+        int m = 0;
+        blockId[deadBlock] = m;
+        queue[m++] = deadBlock;
+        if (blockId[startBlock] < 0)
+        {
+            blockId[startBlock] = m;
+            queue[m++] = startBlock;
+        }
+        for (int i = 0; i < m; i++)
+        {
+            int s = elements[first[queue[i]]];
+            for (int c = 0; c < k; c++)
+            {
+                int tb = blockOf[delta[s * k + c]];
+                if (blockId[tb] < 0)
+                {
+                    blockId[tb] = m;
+                    queue[m++] = tb;
+                }
+            }
+        }
+
+        int[] minTable = new int[m * k];
+        boolean[] minAccept = new boolean[m];
+        for (int i = 0; i < m; i++)
+        {
+            int s = elements[first[queue[i]]];
+            minAccept[i] = acceptStates[order[s]];
+            for (int c = 0; c < k; c++)
+            {
+                minTable[i * k + c] = blockId[blockOf[delta[s * k + c]]];
+            }
+        }
+        return new DFA(alphabet, m, blockId[startBlock], minTable, minAccept);
+    }
+
+    /**
+     * Builds an NFA with State and Transition objects that accepts the same
+     * strings as the DFA, so it can be shown and edited in the workspace. The
+     * dead state is left out, following the convention that undrawn
+     * transitions go to a non-accepting state that loops on all input, as are
+     * transitions on OTHER (which always go to the dead state). The states are
+     * laid out on a circle with the start state on the left.
+     *
+     * Returns the new NFA.
+     */
+    public NFA toNFA()
+    {
+        // the start state comes first, and the dead state is left out
+        int[] order = new int[stateCount];
+        int count = 0;
+        order[count++] = startState;
+        for (int s = 0; s < stateCount; s++)
+        {
+            if (s != startState && s != DEAD_STATE)
+            {
+                order[count++] = s;
+            }
+        }
+
+        double radius = Math.max(150, 70.0 * count / (2 * Math.PI));
+        State[] states = new State[stateCount];
+        NFA nfa = null;
+        for (int i = 0; i < count; i++)
+        {
+            double theta = Math.PI + 2 * Math.PI * i / count;
+            int x = (int) Math.round(100 + radius + radius * Math.cos(theta));
+            int y = (int) Math.round(250 + radius * Math.sin(theta));
+            int s = order[i];
+            if (i == 0)
+            {
+                StartState start = new StartState(x, y, acceptStates[s]);
+                nfa = new NFA(start);
+                states[s] = start;
+            }
+            else
+            {
+                states[s] = new State(x, y, acceptStates[s]);
+                states[s].setSelected(false);
+                nfa.addState(states[s]);
+            }
+        }
+        if (startState == DEAD_STATE)
+        {
+            return nfa;
+        }
+
+        for (int i = 0; i < count; i++)
+        {
+            int s = order[i];
+            StringBuilder[] rules = new StringBuilder[stateCount];
+            for (int c = 0; c < classCount; c++)
+            {
+                int t = table[s * classCount + c];
+                if (c == Alphabet.OTHER || t == DEAD_STATE)
+                {
+                    continue;
+                }
+                if (rules[t] == null)
+                {
+                    rules[t] = new StringBuilder();
+                }
+                for (int codePoint : alphabet.getCodePoints(c))
+                {
+                    rules[t].appendCodePoint(codePoint);
+                }
+            }
+            for (int j = 0; j < count; j++)
+            {
+                int t = order[j];
+                if (rules[t] != null)
+                {
+                    Transition transition = new Transition(states[s], states[t]);
+                    transition.buildRulesFromString(rules[t].toString());
+                    transition.setSelected(false);
+                    states[s].addTransitionOut(transition);
+                    states[t].addTransitionIn(transition);
+                }
+            }
+        }
+
+        // draw transitions that go both ways between two states tangent
+        for (State s : nfa.getStates())
+        {
+            for (Transition t : s.getTransitionsOut())
+            {
+                for (Transition back : t.getToState().getTransitionsOut())
+                {
+                    if (back.getToState() == s && t.getToState() != s)
+                    {
+                        t.setTangent(true);
+                    }
+                }
+            }
+        }
+        return nfa;
+    }
+
+    /**
+     * Returns the alphabet that maps code points to the columns of the table.
+     */
+    public Alphabet getAlphabet()
+    {
+        return alphabet;
+    }
+
+    /**
+     * Returns the number of states, including DEAD_STATE.
+     */
+    public int getStateCount()
+    {
+        return stateCount;
+    }
+
+    /**
+     * Returns the number of character classes (columns of the table).
+     */
+    public int getClassCount()
+    {
+        return classCount;
+    }
+
+    /**
+     * Returns the state the DFA starts in.
+     */
+    public int getStartState()
+    {
+        return startState;
+    }
+
+    /**
+     * Returns the state reached from the given state on the given class.
+     *
+     * int state: the state to move from
+     * int cls: the character class consumed
+     */
+    public int next(int state, int cls)
+    {
+        return table[state * classCount + cls];
+    }
+
+    /**
+     * Returns true if the given state is an accept state.
+     *
+     * int state: the state to check
+     */
+    public boolean isAcceptState(int state)
+    {
+        return acceptStates[state];
+    }
+
+    /**
+     * Returns the number of bytes taken by the transition table.
+     */
+    public long getTableSize()
+    {
+        return 4L * table.length;
+    }
+
+    /**
+     * Runs the DFA over the code points of the input from the given offset to
+     * the end. Surrogate pairs are read as a single code point.
+     *
+     * CharSequence input: the input to run the DFA on
+     * int offset: the index of the first char to read
+     *
+     * Returns true if the DFA accepts the input and false otherwise.
+     */
+    public boolean matches(CharSequence input, int offset)
+    {
+        int state = startState;
+        int length = input.length();
+        int i = offset;
+        while (i < length)
+        {
+            int c = input.charAt(i++);
+            if (Character.isHighSurrogate((char) c) && i < length
+                && Character.isLowSurrogate(input.charAt(i)))
+            {
+                c = Character.toCodePoint((char) c, input.charAt(i++));
+            }
+            state = table[state * classCount + alphabet.classOf(c)];
+            if (state == DEAD_STATE)
+            {
+                return false;
+            }
+        }
+        return acceptStates[state];
+    }
+
+    /**
+     * Runs the DFA over part of an array of code points.
+     *
+     * int[] codePoints: the input to run the DFA on
+     * int offset: the index of the first code point to read
+     * int length: the number of code points to read
+     *
+     * Returns true if the DFA accepts the input and false otherwise.
+     */
+    public boolean matches(int[] codePoints, int offset, int length)
+    {
+        int state = startState;
+        for (int i = offset; i < offset + length; i++)
+        {
+            state = table[state * classCount + alphabet.classOf(codePoints[i])];
+            if (state == DEAD_STATE)
+            {
+                return false;
+            }
+        }
+        return acceptStates[state];
+    }
+
+    /**
+     * Returns a short report of the size of the DFA.
+     */
+    public String toString()
+    {
+        return "DFA with " + stateCount + " states, " + classCount
+            + " character classes and a " + getTableSize() + " byte table";
+    }
+}
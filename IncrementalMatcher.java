@@ -0,0 +1,230 @@
+import java.util.Arrays;
+
+/**
+ * Runs an NFA snapshot on text that is being typed. The active states after
+ * every prefix of the text are kept on a stack, so adding a character to the
+ * end takes one step of the set simulation and deleting the last character
+ * just pops the stack, without running the NFA from the start again. Text
+ * changed in the middle is handled by popping back to where the old and new
+ * text first differ and stepping from there.
+ *
+ * The stack is stored flat: the states after prefix d are
+ * sets[setStart[d]] up to sets[setStart[d + 1]], with prefix 0 (the empty
+ * prefix) at the bottom. Once every state has died the sets stay empty, so
+ * typing past the point of rejection costs almost nothing.
+ *
+ * An IncrementalMatcher is not safe to use from more than one thread at a
+ * time.
+ *
+ * NFASnapshot graph: the snapshot being run
+ * int[] sets: the active states after each prefix, one after another
+ * int[] setStart: where the states after each prefix start in sets
+ * int[] charEnd: the number of chars in each prefix, which can be more than
+ *      the number of code points when the text has surrogate pairs
+ * int depth: the number of code points in the text
+ * String text: the text the matcher has been run on
+ * int[] mark: mark[s] == stamp when s is already in the set being built
+ * int stamp: the mark value for the set being built
+ */
+public class IncrementalMatcher
+{
+    private NFASnapshot graph;
+    private int[] sets;
+    private int[] setStart;
+    private int[] charEnd;
+    private int depth;
+    private String text = "";
+    private int[] mark;
+    private int stamp;
+
+    /**
+     * Constructor for IncrementalMatcher. Starts with the empty text, whose
+     * active states are the epsilon closure of the start state.
+     *
+     * NFASnapshot graph: the snapshot to run
+     */
+    public IncrementalMatcher(NFASnapshot graph)
+    {
+        this.graph = graph;
+        int stateCount = graph.getStateCount();
+        mark = new int[stateCount];
+        sets = new int[Math.max(16, 4 * stateCount)];
+        setStart = new int[64];
+        charEnd = new int[64];
+
+        int[] closure = graph.getEpsilonClosure(graph.getStartState());
+        System.arraycopy(closure, 0, sets, 0, closure.length);
+        setStart[1] = closure.length;
+    }
+
+    /**
+     * Returns the snapshot the matcher runs.
+     */
+    public NFASnapshot getSnapshot()
+    {
+        return graph;
+    }
+
+    /**
+     * Returns the text the matcher has been run on.
+     */
+    public String getText()
+    {
+        return text;
+    }
+
+    /**
+     * Brings the matcher up to date with new text. Only the part of the text
+     * after the longest prefix the old and new text share is run.
+     *
+     * String newText: the text as it is now
+     *
+     * Returns the number of code points that had to be stepped through.
+     */
+    public int setText(String newText)
+    {
+        depth = sharedDepth(newText);
+
+        int steps = 0;
+        int i = charEnd[depth];
+        while (i < newText.length())
+        {
+            int c = newText.codePointAt(i);
+            i += Character.charCount(c);
+            push(c, i);
+            steps++;
+        }
+        text = newText;
+        return steps;
+    }
+
+    /**
+     * Returns the number of code points from the end of the current text
+     * that setText would have to step through for the given new text. Lets a
+     * caller decide whether an update is cheap enough to do straight away.
+     *
+     * String newText: the text as it would be
+     */
+    public int countSteps(String newText)
+    {
+        return newText.codePointCount(charEnd[sharedDepth(newText)], newText.length());
+    }
+
+    /**
+     * Returns true if any state active after the whole text is an accept
+     * state.
+     */
+    public boolean isAccepting()
+    {
+        for (int i = setStart[depth]; i < setStart[depth + 1]; i++)
+        {
+            if (graph.isAcceptState(sets[i]))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if no state is active after the whole text, so no text
+     * starting with it can be accepted.
+     */
+    public boolean isDead()
+    {
+        return setStart[depth + 1] == setStart[depth];
+    }
+
+    /**
+     * Returns the number of states active after the whole text.
+     */
+    public int getActiveStateCount()
+    {
+        return setStart[depth + 1] - setStart[depth];
+    }
+
+    /**
+     * Steps the active states of the current text along a code point and
+     * pushes the result as the states of the text one code point longer.
+     *
+     * int codePoint: the code point added to the text
+     * int chars: the number of chars in the longer text
+     */
+    private void push(int codePoint, int chars)
+    {
+        if (depth + 2 >= setStart.length)
+        {
+            setStart = Arrays.copyOf(setStart, setStart.length * 2);
+            charEnd = Arrays.copyOf(charEnd, charEnd.length * 2);
+        }
+        int from = setStart[depth];
+        int to = setStart[depth + 1];
+        if (to + graph.getStateCount() > sets.length)
+        {
+            sets = Arrays.copyOf(sets, Math.max(sets.length * 2, to + graph.getStateCount()));
+        }
+
+        nextStamp();
+        int size = to;
+        for (int i = from; i < to; i++)
+        {
+            int s = sets[i];
+            int edgeEnd = graph.getEdgeStart(s + 1);
+            for (int e = graph.getEdgeStart(s); e < edgeEnd; e++)
+            {
+                if (graph.getEdgeChar(e) == codePoint && mark[graph.getEdgeTarget(e)] != stamp)
+                {
+                    int[] closure = graph.getEpsilonClosure(graph.getEdgeTarget(e));
+                    for (int k = 0; k < closure.length; k++)
+                    {
+                        if (mark[closure[k]] != stamp)
+                        {
+                            mark[closure[k]] = stamp;
+                            sets[size++] = closure[k];
+                        }
+                    }
+                }
+            }
+        }
+
+        depth++;
+        setStart[depth + 1] = size;
+        charEnd[depth] = chars;
+    }
+
+    /**
+     * Returns the number of code points in the longest prefix of the current
+     * text that the new text starts with.
+     *
+     * String newText: the text to compare with
+     */
+    private int sharedDepth(String newText)
+    {
+        int common = 0;
+        int limit = Math.min(text.length(), newText.length());
+        while (common < limit && text.charAt(common) == newText.charAt(common))
+        {
+            common++;
+        }
+        int d = depth;
+        while (charEnd[d] > common)
+        {
+            d--;
+        }
+        return d;
+    }
+
+    /**
+     * Moves on to a new mark value, clearing the marks in the rare case that
+     * the stamp wraps around.
+     */
+    private void nextStamp()
+    {
+        if (stamp == Integer.MAX_VALUE)
+        {
+            Arrays.fill(mark, 0);
+            stamp = 0;
+        }
+        stamp++;
+    }
+}
@@ -0,0 +1,724 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Times the Language Machine's hot paths so regressions can be tracked from
+ * one release to the next: every engine of NFA.run on inputs from 10 chars up
+ * to 100 million, the minimized DFA, batches run one after another and with
+ * runParallelBatch, single inputs split across threads with ParallelScan,
+ * input read through a StreamMatcher and from a file with a MappedMatcher,
+ * Searcher's search for every match, NFA.save, NFA.load and NFAParser.read,
+ * and painting the workspace. Measurements run on more than one thread
+ * report the number of threads they ran on. The NFAs are generated, not
+ * drawn, in five families:
+ *
+ * chain: a ring of states, so exactly one state is ever active
+ * dense: states with edges to a quarter of the other states
+ * epsilon: a ring with epsilon edges forwards and to random states
+ * blowup: (a|b)*a(a|b)^n, whose DFA has 2^(n+1) states
+ * ambiguous: ((a|b)|(a|b))*c, which accepts no string of a's and b's but
+ *      has 2^n paths through an input of length n
+ *
+ * Every family stays alive on any string of a's and b's, so a run always
+ * reads its whole input. Inputs are random strings of a's and b's. The
+ * ambiguous family rejects every one of them, so the backtracking and stack
+ * engines have to search it to the end instead of stopping at the first
+ * accept; if either stops remembering the (state, position) pairs it has
+ * already searched, its times there grow exponentially.
+ *
+ * Each measurement is warmed up before it is timed, and then repeated until
+ * it has run for long enough and at least MIN_ITERATIONS times. Results are
+ * printed one JSON object per line, so they can be appended to a file and
+ * compared across releases.
+ *
+ * Usage: java LMBenchmark [maxInputLength [millisPerMeasurement]]
+ *
+ * static final int[] INPUT_LENGTHS: the input lengths runs are timed on
+ * static final int MAX_BACKTRACK_INPUT: the longest input the backtracking
+ *      engine is timed on, since it recurses once per character
+ * static final int MAX_STACK_INPUT: the longest input the work stack engine
+ *      is timed on, since it copies the input into an array of code points
+ * static final int MAX_SEARCH_INPUT: the longest input Searcher is timed on,
+ *      since it keeps every match it finds
+ * static final int BATCH_SIZE, BATCH_INPUT_LENGTH: the number of inputs in a
+ *      timed batch, and the length of each
+ * static final int[] STREAM_ENGINES: the engines a StreamMatcher can run
+ * static final int MIN_ITERATIONS: the fewest times a measurement is run
+ * PrintStream out: where results are printed
+ * long millisPerMeasurement: how long each measurement is timed for
+ * int lastIterations: the number of calls the last measurement timed
+ * Object sink: the last result of the code being timed, kept so the JIT
+ *      can't throw the work away
+ */
+public class LMBenchmark
+{
+    public static final int[] INPUT_LENGTHS = {10, 1000, 100000, 10000000, 100000000};
+    public static final int MAX_BACKTRACK_INPUT = 10000;
+    public static final int MAX_STACK_INPUT = 1000000;
+    public static final int MAX_SEARCH_INPUT = 1000000;
+    public static final int BATCH_SIZE = 10000;
+    public static final int BATCH_INPUT_LENGTH = 100;
+    public static final int[] STREAM_ENGINES =
+        {NFA.SET_ENGINE, NFA.DFA_ENGINE, NFA.LAZY_DFA_ENGINE, NFA.BITSET_ENGINE};
+    public static final int MIN_ITERATIONS = 3;
+
+    private PrintStream out;
+    private long millisPerMeasurement;
+    private int lastIterations;
+    private Object sink;
+
+    /**
+     * Constructor for LMBenchmark.
+     *
+     * PrintStream out: where to print the results
+     * long millisPerMeasurement: how long to time each measurement for
+     */
+    public LMBenchmark(PrintStream out, long millisPerMeasurement)
+    {
+        this.out = out;
+        this.millisPerMeasurement = millisPerMeasurement;
+    }
+
+    /**
+     * Runs every benchmark and prints the results to standard out.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int maxInputLength = INPUT_LENGTHS[INPUT_LENGTHS.length - 1];
+        long millis = 500;
+        if (args.length > 0)
+        {
+            maxInputLength = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1)
+        {
+            millis = Long.parseLong(args[1]);
+        }
+        System.setProperty("java.awt.headless", "true");
+
+        LMBenchmark benchmark = new LMBenchmark(System.out, millis);
+        benchmark.printEnvironment();
+        ArrayList<NFA> nfas = new ArrayList<NFA>();
+        ArrayList<String> families = new ArrayList<String>();
+        families.add("chain");
+        nfas.add(chain(64));
+        families.add("dense");
+        nfas.add(dense(32, new Random(1)));
+        families.add("epsilon");
+        nfas.add(epsilonHeavy(32, new Random(2)));
+        families.add("blowup");
+        nfas.add(blowup(10));
+        families.add("ambiguous");
+        nfas.add(ambiguous(2));
+
+        for (int i = 0; i < nfas.size(); i++)
+        {
+            benchmark.benchmarkRuns(families.get(i), nfas.get(i), maxInputLength);
+            benchmark.benchmarkBatches(families.get(i), nfas.get(i));
+            benchmark.benchmarkLongInputs(families.get(i), nfas.get(i), maxInputLength);
+        }
+        for (int i = 0; i < nfas.size(); i++)
+        {
+            benchmark.benchmarkSaveAndLoad(families.get(i), nfas.get(i));
+            benchmark.benchmarkPaint(families.get(i), nfas.get(i));
+        }
+        benchmark.benchmarkSaveAndLoad("chain", chain(4096));
+    }
+
+    /**
+     * Prints a line describing the machine the benchmarks run on.
+     */
+    public void printEnvironment()
+    {
+        out.println("{\"benchmark\":\"environment\""
+            + ",\"java\":\"" + System.getProperty("java.version") + "\""
+            + ",\"vm\":\"" + System.getProperty("java.vm.name") + "\""
+            + ",\"os\":\"" + System.getProperty("os.name") + "\""
+            + ",\"cores\":" + Runtime.getRuntime().availableProcessors()
+            + ",\"maxMemory\":" + Runtime.getRuntime().maxMemory() + "}");
+    }
+
+    /**
+     * Times every engine, and the minimized DFA, on every input length up to
+     * the given one.
+     *
+     * String family: the name of the NFA's family
+     * NFA nfa: the NFA to run
+     * int maxInputLength: the longest input to time
+     */
+    public void benchmarkRuns(String family, final NFA nfa, int maxInputLength)
+    {
+        boolean compiled = compile(nfa);
+        DFA minimized = compiled ? nfa.getDFA().minimize() : null;
+
+        for (int length : INPUT_LENGTHS)
+        {
+            if (length > maxInputLength)
+            {
+                break;
+            }
+            final String input = randomInput(length, new Random(length));
+            for (int engine = 0; engine < NFA.ENGINE_NAMES.length; engine++)
+            {
+                String name = "{\"benchmark\":\"run\",\"family\":\"" + family + "\""
+                    + ",\"states\":" + nfa.getStates().size()
+                    + ",\"engine\":\"" + NFA.ENGINE_NAMES[engine] + "\""
+                    + ",\"inputLength\":" + length;
+                if ((engine == NFA.BACKTRACK_ENGINE && length > MAX_BACKTRACK_INPUT)
+                    || (engine == NFA.STACK_ENGINE && length > MAX_STACK_INPUT)
+                    || (engine == NFA.DFA_ENGINE && !compiled))
+                {
+                    out.println(name + ",\"skipped\":true}");
+                    continue;
+                }
+
+                final int runEngine = engine;
+                long nanos = measure(new Callable<Object>()
+                {
+                    public Object call()
+                    {
+                        return nfa.run(input, runEngine);
+                    }
+                });
+                report(name, nanos, length);
+            }
+
+            String name = "{\"benchmark\":\"run\",\"family\":\"" + family + "\""
+                + ",\"states\":" + nfa.getStates().size()
+                + ",\"engine\":\"minimized-dfa\"" + ",\"inputLength\":" + length;
+            if (minimized == null)
+            {
+                out.println(name + ",\"skipped\":true}");
+                continue;
+            }
+            final DFA dfa = minimized;
+            long nanos = measure(new Callable<Object>()
+            {
+                public Object call()
+                {
+                    return dfa.matches(input, 0);
+                }
+            });
+            report(name + ",\"dfaStates\":" + dfa.getStateCount(), nanos, length);
+        }
+    }
+
+    /**
+     * Times running a batch of short inputs with every engine, one input
+     * after another with NFA.runBatch and split across the threads of the
+     * common pool with NFA.runParallelBatch.
+     *
+     * String family: the name of the NFA's family
+     * NFA nfa: the NFA to run
+     */
+    public void benchmarkBatches(String family, final NFA nfa)
+    {
+        boolean compiled = compile(nfa);
+        Random random = new Random(BATCH_SIZE);
+        final ArrayList<String> inputs = new ArrayList<String>();
+        for (int i = 0; i < BATCH_SIZE; i++)
+        {
+            inputs.add(randomInput(BATCH_INPUT_LENGTH, random));
+        }
+        final ForkJoinPool pool = ForkJoinPool.commonPool();
+        long chars = (long) BATCH_SIZE * BATCH_INPUT_LENGTH;
+
+        for (int engine = 0; engine < NFA.ENGINE_NAMES.length; engine++)
+        {
+            String name = ",\"family\":\"" + family + "\""
+                + ",\"states\":" + nfa.getStates().size()
+                + ",\"engine\":\"" + NFA.ENGINE_NAMES[engine] + "\""
+                + ",\"inputs\":" + BATCH_SIZE + ",\"inputLength\":" + BATCH_INPUT_LENGTH;
+            if (engine == NFA.DFA_ENGINE && !compiled)
+            {
+                out.println("{\"benchmark\":\"batch\"" + name + ",\"skipped\":true}");
+                out.println("{\"benchmark\":\"parallelBatch\"" + name + ",\"skipped\":true}");
+                continue;
+            }
+
+            final int runEngine = engine;
+            long nanos = measure(new Callable<Object>()
+            {
+                public Object call()
+                {
+                    return nfa.runBatch(inputs.iterator(), runEngine);
+                }
+            });
+            report("{\"benchmark\":\"batch\"" + name, nanos, chars);
+
+            if (engine == NFA.BACKTRACK_ENGINE)
+            {
+                out.println("{\"benchmark\":\"parallelBatch\"" + name + ",\"skipped\":true}");
+                continue;
+            }
+            nanos = measure(new Callable<Object>()
+            {
+                public Object call()
+                {
+                    return nfa.runParallelBatch(inputs, runEngine, pool);
+                }
+            });
+            report("{\"benchmark\":\"parallelBatch\"" + name
+                + ",\"threads\":" + pool.getParallelism(), nanos, chars);
+        }
+    }
+
+    /**
+     * Times the ways of running one long input other than NFA.run: split
+     * across the threads of the common pool with ParallelScan, read through
+     * a StreamMatcher with each engine it can run, read from a file with a
+     * MappedMatcher, and searched for every match with a Searcher. Every
+     * input length up to the given one is timed, except that Searcher is
+     * only timed up to MAX_SEARCH_INPUT.
+     *
+     * String family: the name of the NFA's family
+     * NFA nfa: the NFA to run
+     * int maxInputLength: the longest input to time
+     */
+    public void benchmarkLongInputs(String family, final NFA nfa, int maxInputLength) throws IOException
+    {
+        boolean compiled = compile(nfa);
+        Searcher searcher = null;
+        try
+        {
+            searcher = new Searcher(nfa);
+        }
+        catch (IllegalStateException e)
+        {
+            // the reversed NFA's DFA is too large to search with
+        }
+
+        for (int length : INPUT_LENGTHS)
+        {
+            if (length > maxInputLength)
+            {
+                break;
+            }
+            final String input = randomInput(length, new Random(length));
+            String name = ",\"family\":\"" + family + "\""
+                + ",\"states\":" + nfa.getStates().size() + ",\"inputLength\":" + length;
+
+            if (compiled)
+            {
+                final ForkJoinPool pool = ForkJoinPool.commonPool();
+                final DFA dfa = nfa.getDFA();
+                long nanos = measure(new Callable<Object>()
+                {
+                    public Object call()
+                    {
+                        return ParallelScan.matches(dfa, input, pool);
+                    }
+                });
+                report("{\"benchmark\":\"parallelScan\"" + name
+                    + ",\"threads\":" + pool.getParallelism(), nanos, length);
+            }
+            else
+            {
+                out.println("{\"benchmark\":\"parallelScan\"" + name + ",\"skipped\":true}");
+            }
+
+            for (int engine : STREAM_ENGINES)
+            {
+                String streamName = "{\"benchmark\":\"stream\"" + name
+                    + ",\"engine\":\"" + NFA.ENGINE_NAMES[engine] + "\"";
+                if (engine == NFA.DFA_ENGINE && !compiled)
+                {
+                    out.println(streamName + ",\"skipped\":true}");
+                    continue;
+                }
+                final StreamMatcher stream = new StreamMatcher(nfa, engine);
+                long nanos = measure(new Callable<Object>()
+                {
+                    public Object call() throws IOException
+                    {
+                        return stream.matches(new StringReader(input));
+                    }
+                });
+                report(streamName, nanos, length);
+            }
+
+            if (compiled)
+            {
+                final File file = File.createTempFile("lmbenchmark", ".txt");
+                file.deleteOnExit();
+                FileOutputStream fileOut = new FileOutputStream(file);
+                try
+                {
+                    fileOut.write(input.getBytes(StandardCharsets.US_ASCII));
+                }
+                finally
+                {
+                    fileOut.close();
+                }
+                final MappedMatcher mapped = new MappedMatcher(nfa);
+                long nanos = measure(new Callable<Object>()
+                {
+                    public Object call() throws IOException
+                    {
+                        return mapped.matches(file, StandardCharsets.US_ASCII);
+                    }
+                });
+                report("{\"benchmark\":\"mapped\"" + name, nanos, length);
+                file.delete();
+            }
+            else
+            {
+                out.println("{\"benchmark\":\"mapped\"" + name + ",\"skipped\":true}");
+            }
+
+            for (int mode = Searcher.LEFTMOST_LONGEST; mode <= Searcher.LEFTMOST_SHORTEST; mode++)
+            {
+                String searchName = "{\"benchmark\":\"search\"" + name + ",\"mode\":\""
+                    + (mode == Searcher.LEFTMOST_LONGEST ? "leftmost-longest" : "leftmost-shortest") + "\"";
+                if (searcher == null || length > MAX_SEARCH_INPUT)
+                {
+                    out.println(searchName + ",\"skipped\":true}");
+                    continue;
+                }
+                final Searcher search = searcher;
+                final int searchMode = mode;
+                long nanos = measure(new Callable<Object>()
+                {
+                    public Object call()
+                    {
+                        return search.findAll(input, searchMode);
+                    }
+                });
+                report(searchName, nanos, length);
+            }
+        }
+    }
+
+    /**
+     * Compiles an NFA's DFA if it isn't too large.
+     *
+     * NFA nfa: the NFA to compile
+     *
+     * Returns true if the NFA has a compiled DFA.
+     */
+    private static boolean compile(NFA nfa)
+    {
+        if (nfa.getDFA() != null)
+        {
+            return true;
+        }
+        try
+        {
+            nfa.compile();
+            return true;
+        }
+        catch (IllegalStateException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Times saving an NFA to a file and loading it back, both into an NFA
+     * and into a CompactNFA alone.
+     *
+     * String family: the name of the NFA's family
+     * NFA nfa: the NFA to save and load
+     */
+    public void benchmarkSaveAndLoad(String family, final NFA nfa) throws IOException
+    {
+        final File file = File.createTempFile("lmbenchmark", ".nfa");
+        file.deleteOnExit();
+        final String filename = file.getPath();
+        String name = ",\"family\":\"" + family + "\",\"states\":" + nfa.getStates().size();
+
+        long nanos = measure(new Callable<Object>()
+        {
+            public Object call()
+            {
+                nfa.save(filename);
+                return filename;
+            }
+        });
+        report("{\"benchmark\":\"save\"" + name, nanos, file.length());
+
+        nanos = measure(new Callable<Object>()
+        {
+            public Object call() throws IOException
+            {
+                NFA loaded = new NFA();
+                loaded.load(filename);
+                return loaded;
+            }
+        });
+        report("{\"benchmark\":\"load\"" + name, nanos, file.length());
+
+        nanos = measure(new Callable<Object>()
+        {
+            public Object call() throws IOException
+            {
+                return NFAParser.read(file);
+            }
+        });
+        report("{\"benchmark\":\"parse\"" + name, nanos, file.length());
+        file.delete();
+    }
+
+    /**
+     * Times painting the workspace with an NFA in it onto an image.
+     *
+     * String family: the name of the NFA's family
+     * NFA nfa: the NFA to paint
+     */
+    public void benchmarkPaint(String family, NFA nfa)
+    {
+        final LMWorkspacePanel workspace = new LMWorkspacePanel();
+        workspace.setInputToolbar(new LMInputToolbar());
+        workspace.setNFA(nfa);
+        workspace.setSize(800, 600);
+        final BufferedImage image = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+
+        long nanos = measure(new Callable<Object>()
+        {
+            public Object call()
+            {
+                Graphics2D g = image.createGraphics();
+                workspace.paint(g);
+                g.dispose();
+                return image;
+            }
+        });
+        report("{\"benchmark\":\"paint\",\"family\":\"" + family + "\""
+            + ",\"states\":" + nfa.getStates().size(), nanos, 0);
+    }
+
+    /**
+     * Warms a piece of code up and then times it.
+     *
+     * Callable<Object> op: the code to time
+     *
+     * Returns the average number of nanoseconds one call took. The number of
+     * calls timed is kept in lastIterations.
+     */
+    private long measure(Callable<Object> op)
+    {
+        try
+        {
+            // warm up for half the measurement time, but at least once
+            long end = System.nanoTime() + millisPerMeasurement * 500000L;
+            do
+            {
+                sink = op.call();
+            }
+            while (System.nanoTime() < end);
+
+            long start = System.nanoTime();
+            end = start + millisPerMeasurement * 1000000L;
+            int iterations = 0;
+            long now;
+            do
+            {
+                sink = op.call();
+                iterations++;
+                now = System.nanoTime();
+            }
+            while (iterations < MIN_ITERATIONS || now < end);
+            lastIterations = iterations;
+            return (now - start) / iterations;
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Prints the result of a measurement as the end of a JSON object.
+     *
+     * String name: the start of the JSON object, naming the measurement
+     * long nanosPerOp: the average nanoseconds per call
+     * long size: the chars or bytes each call handled, or 0 if that doesn't
+     *      apply
+     */
+    private void report(String name, long nanosPerOp, long size)
+    {
+        String line = name + ",\"iterations\":" + lastIterations + ",\"nsPerOp\":" + nanosPerOp;
+        if (size > 0)
+        {
+            line += ",\"unitsPerSecond\":" + (long) (size * 1e9 / Math.max(1, nanosPerOp));
+        }
+        out.println(line + "}");
+    }
+
+    /**
+     * Returns a random string of a's and b's.
+     *
+     * int length: the length of the string
+     * Random random: the source of randomness
+     */
+    public static String randomInput(int length, Random random)
+    {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++)
+        {
+            chars[i] = random.nextBoolean() ? 'a' : 'b';
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns a ring of states, each going to the next on a or b, with the
+     * start state the only accept state.
+     *
+     * int n: the number of states
+     */
+    public static NFA chain(int n)
+    {
+        NFA nfa = newNFA(n, false);
+        ArrayList<State> states = nfa.getStates();
+        states.get(0).setAcceptState(true);
+        for (int i = 0; i < n; i++)
+        {
+            connect(states.get(i), states.get((i + 1) % n), "ab");
+        }
+        return nfa;
+    }
+
+    /**
+     * Returns an NFA whose states each have edges to about a quarter of the
+     * states on a, b or both, and one edge on both a and b so that no run
+     * ever dies.
+     *
+     * int n: the number of states
+     * Random random: the source of randomness
+     */
+    public static NFA dense(int n, Random random)
+    {
+        NFA nfa = newNFA(n, true);
+        ArrayList<State> states = nfa.getStates();
+        String[] rules = {"a", "b", "ab"};
+        for (int i = 0; i < n; i++)
+        {
+            int alive = random.nextInt(n);
+            for (int j = 0; j < n; j++)
+            {
+                if (j == alive)
+                {
+                    connect(states.get(i), states.get(j), "ab");
+                }
+                else if (random.nextInt(4) == 0)
+                {
+                    connect(states.get(i), states.get(j), rules[random.nextInt(3)]);
+                }
+            }
+        }
+        return nfa;
+    }
+
+    /**
+     * Returns a ring of states on a and b, each with an epsilon edge to the
+     * next state as well as to a random other state, so there are epsilon
+     * cycles all round.
+     *
+     * int n: the number of states
+     * Random random: the source of randomness
+     */
+    public static NFA epsilonHeavy(int n, Random random)
+    {
+        NFA nfa = newNFA(n, true);
+        ArrayList<State> states = nfa.getStates();
+        for (int i = 0; i < n; i++)
+        {
+            State next = states.get((i + 1) % n);
+            connect(states.get(i), next, "ab\u025B");
+            int other = random.nextInt(n);
+            if (other != i && other != (i + 1) % n)
+            {
+                connect(states.get(i), states.get(other), "\u025B");
+            }
+        }
+        return nfa;
+    }
+
+    /**
+     * Returns the NFA for (a|b)*a(a|b)^n, the classic NFA whose DFA needs
+     * 2^(n+1) states.
+     *
+     * int n: the number of (a|b)s after the a
+     */
+    public static NFA blowup(int n)
+    {
+        NFA nfa = newNFA(n + 2, false);
+        ArrayList<State> states = nfa.getStates();
+        states.get(n + 1).setAcceptState(true);
+        connect(states.get(0), states.get(0), "ab");
+        connect(states.get(0), states.get(1), "a");
+        for (int i = 1; i <= n; i++)
+        {
+            connect(states.get(i), states.get(i + 1), "ab");
+        }
+        return nfa;
+    }
+
+    /**
+     * Returns the NFA for ((a|b)|(a|b)|...)*c: the start state has epsilon
+     * edges to several states that each go back to it on a or b, and an edge
+     * on c to the only accept state. It accepts no string of a's and b's, and
+     * there are ways^n paths through an input of length n.
+     *
+     * int ways: the number of ways round the loop for each character
+     */
+    public static NFA ambiguous(int ways)
+    {
+        NFA nfa = newNFA(ways + 2, false);
+        ArrayList<State> states = nfa.getStates();
+        states.get(ways + 1).setAcceptState(true);
+        for (int i = 1; i <= ways; i++)
+        {
+            connect(states.get(0), states.get(i), "\u025B");
+            connect(states.get(i), states.get(0), "ab");
+        }
+        connect(states.get(0), states.get(ways + 1), "c");
+        return nfa;
+    }
+
+    /**
+     * Returns an NFA with n states laid out in a circle and no transitions.
+     *
+     * int n: the number of states
+     * boolean everyThirdAccepts: true to make every third state an accept
+     *      state
+     */
+    private static NFA newNFA(int n, boolean everyThirdAccepts)
+    {
+        NFA nfa = new NFA(new StartState(400, 50, false));
+        for (int i = 1; i < n; i++)
+        {
+            double angle = 2 * Math.PI * i / n;
+            State state = new State(400 + (int) (250 * Math.sin(angle)),
+                300 - (int) (250 * Math.cos(angle)), everyThirdAccepts && i % 3 == 0);
+            state.setSelected(false);
+            nfa.addState(state);
+        }
+        return nfa;
+    }
+
+    /**
+     * Adds a transition between two states.
+     *
+     * State from, to: the ends of the transition
+     * String rules: the rule characters of the transition
+     */
+    private static void connect(State from, State to, String rules)
+    {
+        Transition t = new Transition(from, to);
+        t.buildRulesFromString(rules);
+        from.addTransitionOut(t);
+        to.addTransitionIn(t);
+    }
+}
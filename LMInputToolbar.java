@@ -1,4 +1,5 @@
 import javax.swing.*;
+import javax.swing.event.*;
 import java.awt.*;
 import java.awt.event.*;
 
@@ -18,23 +19,38 @@ import java.awt.event.*;
  *      NFA
  * - JButton enterButton: allows the user to submit text in the above field 
  *      for processing by the NFA
+ * - JButton cancelButton: stops the run in progress
  * - JLabel acceptanceLabel: this tells the user whether or not their string
  *      is accepted by the NFA
  * - NFA nfa: the NFA created by the user that is displayed in the workspace.
+ * - LMRunWorker runWorker: the run in progress in the background, or null
+ *      if there isn't one
+ * - boolean showingProgress: true while the message panel shows the progress
+ *      of a run, so that it can be cleared when the run ends
+ * - IncrementalMatcher liveMatcher: keeps the NFA's states for every prefix
+ *      of the input so the result can be shown as the user types
+ * - static final int LIVE_STEP_LIMIT: the most characters run on the event
+ *      dispatch thread for one edit; larger edits wait for Enter
  */
 
 public class LMInputToolbar
     extends JToolBar
-    implements ActionListener
+    implements ActionListener, DocumentListener
 {
     private LMWorkspacePanel workspacePanel;
     private LMMessagePanel messagePanel;
 
     private JTextField inputText;
     private JButton enterButton;
+    private JButton cancelButton;
     private JLabel acceptanceLabel;
     
     private NFA nfa;
+    private LMRunWorker runWorker;
+    private boolean showingProgress;
+    private IncrementalMatcher liveMatcher;
+
+    public static final int LIVE_STEP_LIMIT = 1 << 16;
 
     /**
      * Constructor for LMInputToolbar.
@@ -85,23 +101,43 @@ public class LMInputToolbar
     }
 
     /**
-     * Sets the nfa to the one displayed.
+     * Sets the nfa to the one displayed. A run of a different NFA still in
+     * progress is stopped, since its result isn't for the NFA on screen.
      *
      * NFA nfa: the NFA currently being worked on by the user
      */
     public void setNFA(NFA nfa)
     {
+        if (nfa != this.nfa)
+        {
+            cancelRun();
+        }
         this.nfa = nfa;
     }
 
     /**
-     * Stops displaying the result of the user's last test.
+     * Stops displaying the result of the user's last test. A run in progress
+     * carries on; see cancelRunIfOutOfDate().
      */
     public void clearAcceptanceText()
     {
         acceptanceLabel.setText("");
     }
 
+    /**
+     * Stops the run in progress if the NFA has changed since the run's
+     * snapshot was taken, since its result would be for an NFA that is no
+     * longer on screen. Selecting or dragging states doesn't change the NFA's
+     * version, so such edits leave the run going.
+     */
+    public void cancelRunIfOutOfDate()
+    {
+        if (runWorker != null && runWorker.getSnapshot().getVersion() != nfa.getVersion())
+        {
+            cancelRun();
+        }
+    }
+
     /**
      * Performs actions based on user input, here the primary action is
      * testing strings against NFAs and displaying the result.
@@ -117,27 +153,151 @@ public class LMInputToolbar
         {
             submitInputTextToNFAAndDisplayOutput();
         }
+        else if (command.equals("cancel"))
+        {
+            cancelRun();
+            messagePanel.setText("Run cancelled.");
+        }
     }
 
     /**
-     * Runs the user's NFA on the user's input and displays the result
+     * Stops the run in progress when the user types in the input field, since
+     * its result would be for text that is no longer there, and shows the
+     * result for the new text.
+     *
+     * DocumentEvent e: the insertion
      */
-    private void submitInputTextToNFAAndDisplayOutput()
+    public void insertUpdate(DocumentEvent e)
     {
-        for (State s : nfa.getStates())
+        cancelRun();
+        showLiveResult();
+    }
+
+    /**
+     * Stops the run in progress when the user deletes from the input field
+     * and shows the result for the new text.
+     *
+     * DocumentEvent e: the removal
+     */
+    public void removeUpdate(DocumentEvent e)
+    {
+        cancelRun();
+        showLiveResult();
+    }
+
+    /**
+     * Plain text fields don't fire attribute changes, so there is nothing to
+     * do here.
+     *
+     * DocumentEvent e: the change
+     */
+    public void changedUpdate(DocumentEvent e) {}
+
+    /**
+     * Stops the run in progress, if there is one.
+     */
+    public void cancelRun()
+    {
+        if (runWorker != null)
         {
-            for (Transition t : s.getTransitionsOut())
-            {
-                if (t.getRules().size() == 0)
-                {
-                    messagePanel.setText("WARNING: You have transition(s) without any rules.");
-                    break;
-                }
-            }
+            runWorker.cancel(true);
+            endRun();
+        }
+    }
+
+    /**
+     * Shows how far the run in progress has got. Called by the run's worker
+     * on the event dispatch thread.
+     *
+     * LMRunWorker worker: the worker reporting
+     * int read: the number of characters read so far
+     * int length: the number of characters in the input
+     * int activeStates: the number of states the NFA could be in
+     */
+    public void showRunProgress(LMRunWorker worker, int read, int length, int activeStates)
+    {
+        if (worker == runWorker)
+        {
+            messagePanel.setText("Running: read " + read + " of " + length + " characters, "
+                + activeStates + " states active.");
+            showingProgress = true;
+        }
+    }
+
+    /**
+     * Shows whether the NFA accepts the input once the run has finished.
+     * Called by the run's worker on the event dispatch thread.
+     *
+     * LMRunWorker worker: the worker reporting
+     * boolean accepts: true if the NFA accepts the input
+     */
+    public void showRunResult(LMRunWorker worker, boolean accepts)
+    {
+        if (worker != runWorker)
+        {
+            return;
+        }
+        endRun();
+        if (worker.getSnapshot().getVersion() != nfa.getVersion())
+        {
+            // the NFA changed after the last check, so the result is stale
+            return;
+        }
+        showAcceptance(accepts);
+        inputText.requestFocusInWindow();
+        inputText.selectAll();
+    }
+
+    /**
+     * Reports a run that stopped with an error. Called by the run's worker on
+     * the event dispatch thread.
+     *
+     * LMRunWorker worker: the worker reporting
+     * Exception e: what went wrong
+     */
+    public void showRunFailure(LMRunWorker worker, Exception e)
+    {
+        if (worker == runWorker)
+        {
+            endRun();
+            messagePanel.setText("ERROR: The run failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Shows whether the NFA accepts the text in the input field, running only
+     * the characters that changed since the last time. Edits that would need
+     * more than LIVE_STEP_LIMIT characters run, such as a large paste or any
+     * edit to a long input after the NFA changes, clear the result instead
+     * and are left for Enter to run in the background.
+     */
+    private void showLiveResult()
+    {
+        acceptanceLabel.setText("");
+        if (nfa == null)
+        {
+            return;
         }
         String inputString = inputText.getText();
-        boolean accepts = nfa.run(inputString);
+        NFASnapshot graph = nfa.getSnapshot();
+        if (liveMatcher == null || liveMatcher.getSnapshot() != graph)
+        {
+            liveMatcher = new IncrementalMatcher(graph);
+        }
+        if (liveMatcher.countSteps(inputString) <= LIVE_STEP_LIMIT)
+        {
+            liveMatcher.setText(inputString);
+            showAcceptance(liveMatcher.isAccepting());
+        }
+    }
 
+    /**
+     * Sets the acceptance label to show a result.
+     *
+     * boolean accepts: true if the NFA accepts the input
+     */
+    private void showAcceptance(boolean accepts)
+    {
         if (accepts)
         {
             acceptanceLabel.setForeground(Color.BLUE);
@@ -148,8 +308,46 @@ public class LMInputToolbar
             acceptanceLabel.setForeground(Color.RED);
             acceptanceLabel.setText("Rejects");
         }
-        inputText.requestFocusInWindow();
-        inputText.selectAll();
+    }
+
+    /**
+     * Forgets the run in progress and clears its progress message.
+     */
+    private void endRun()
+    {
+        runWorker = null;
+        cancelButton.setEnabled(false);
+        if (showingProgress)
+        {
+            messagePanel.clearText();
+            showingProgress = false;
+        }
+    }
+
+    /**
+     * Starts running the user's NFA on the user's input in the background.
+     * The result is displayed when the run finishes.
+     */
+    private void submitInputTextToNFAAndDisplayOutput()
+    {
+        for (State s : nfa.getStates())
+        {
+            for (Transition t : s.getTransitionsOut())
+            {
+                if (t.getRules().size() == 0)
+                {
+                    messagePanel.setText("WARNING: You have transition(s) without any rules.");
+                    break;
+                }
+            }
+        }
+        cancelRun();
+        String inputString = inputText.getText();
+
+        // the snapshot has to be taken here, on the event dispatch thread
+        runWorker = new LMRunWorker(this, nfa.getSnapshot(), inputString);
+        cancelButton.setEnabled(true);
+        runWorker.execute();
     }
 
     /**
@@ -171,6 +369,7 @@ public class LMInputToolbar
         inputText = new JTextField();
         inputText.setActionCommand("enter");
         inputText.addActionListener(this);
+        inputText.getDocument().addDocumentListener(this);
         inputText.setPreferredSize(new Dimension(0, 100));
         add(inputText, c);
 
@@ -181,6 +380,13 @@ public class LMInputToolbar
         enterButton.addActionListener(this);
         add(enterButton, c);
 
+        c.gridx++;
+        cancelButton = new JButton("Cancel");
+        cancelButton.setActionCommand("cancel");
+        cancelButton.addActionListener(this);
+        cancelButton.setEnabled(false);
+        add(cancelButton, c);
+
         c.gridx++;
         Font displayFont = new Font("Serif", Font.BOLD, 18);
         acceptanceLabel = new JLabel();
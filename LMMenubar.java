@@ -3,6 +3,7 @@ import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.File;
+import java.io.IOException;
 
 /**
  * Written by Daniel Barter, Alby Himelick, and Grace Whitmore.
@@ -10,8 +11,9 @@ import java.io.File;
  * 4 June 2012
  *
  * Builds a menu for the frame. Includes a file menu with options to start a
- * new NFA, open an NFA, save the current NFA, and close the window, and a
- * help menu with a small 'Getting Started' help dialog. Implements
+ * new NFA, open an NFA, save the current NFA, and close the window, a
+ * machine menu with an option to minimize the current NFA, and a help menu
+ * with a small 'Getting Started' help dialog. Implements
  * ActionListener for the menu options and WindowListener to handle the
  * closing of the frame.
  *
@@ -162,6 +164,11 @@ public class LMMenubar
             close();
         }
 
+        else if (command.equals("minimize"))
+        {
+            minimizeNFA();
+        }
+
         else if (command.equals("started"))
         {
             JOptionPane.showMessageDialog(this,
@@ -207,19 +214,38 @@ public class LMMenubar
             int choice = fileChooser.showOpenDialog(workspacePanel);
             if (choice == JFileChooser.APPROVE_OPTION)
             {
-                curFile = fileChooser.getSelectedFile();
-                curDir = fileChooser.getCurrentDirectory();
-                if (curFile.exists())
+                File file = fileChooser.getSelectedFile();
+                File dir = fileChooser.getCurrentDirectory();
+                if (file.exists())
                 {
-                    String filename = curFile.getName();
+                    String filename = file.getName();
                     NFA nfa = new NFA();
-                    if (nfa.load(curDir + "/" + filename))
+                    try
                     {
+                        nfa.load(dir + "/" + filename);
+                        // only switch files once the new one has loaded
+                        curFile = file;
+                        curDir = dir;
                         workspacePanel.setNFA(nfa);
                         workspacePanel.setTool(LMWorkspacePanel.SELECT_TOOL);
                         workspacePanel.repaint();
                         messagePanel.setFilename(filename);
                     }
+                    catch (NFAFormatException e)
+                    {
+                        JOptionPane.showMessageDialog(workspacePanel,
+                            "Cannot open specified file due to invalid file format.\n"
+                                + "Line " + e.getLine() + ", column " + e.getColumn() + ": " + e.getReason(),
+                            "Invalid file format",
+                            JOptionPane.ERROR_MESSAGE);
+                    }
+                    catch (IOException e)
+                    {
+                        JOptionPane.showMessageDialog(workspacePanel,
+                            "Failed to open file.\n" + e.getMessage(),
+                            "Failed to open file",
+                            JOptionPane.ERROR_MESSAGE);
+                    }
                 }
                 else
                 {
@@ -232,6 +258,38 @@ public class LMMenubar
         }
     }
 
+    /**
+     * Replaces the current NFA with the smallest DFA that accepts the same
+     * strings, so the user can see the optimized machine. The result counts
+     * as a modification of the current file. Shows an error message if the
+     * NFA is too large to compile. Only called in actionPerformed().
+     */
+    private void minimizeNFA()
+    {
+        NFA minimized;
+        try
+        {
+            minimized = workspacePanel.getNFA().compile().minimize().toNFA();
+        }
+        catch (IllegalStateException e)
+        {
+            JOptionPane.showMessageDialog(workspacePanel,
+                "Unable to minimize this NFA.\n" + e.getMessage(),
+                "Minimize failed",
+                JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        workspacePanel.setNFA(minimized);
+        workspacePanel.setModified(true);
+        messagePanel.setFileModified();
+        messagePanel.setText("Minimized to " + minimized.getStates().size() + " state(s).");
+        optionsPanel.changeOptions("blank");
+        inputToolbar.clearAcceptanceText();
+        workspacePanel.setTool(LMWorkspacePanel.SELECT_TOOL);
+        workspacePanel.repaint();
+    }
+
     /**
      * Saves the current NFA. If it hasn't already been saved, opens a 'save as'
      * dialog. Otherwise, saves the NFA using the current filename (curFile).
@@ -364,6 +422,17 @@ public class LMMenubar
 
         add(fileMenu);
 
+        JMenu machineMenu = new JMenu("Machine");
+        machineMenu.setBorder(new EmptyBorder(5, 5, 5, 5));
+
+        JMenuItem minimizeItem = new JMenuItem("Minimize");
+        minimizeItem.setPreferredSize(new Dimension(150, 25));
+        minimizeItem.setActionCommand("minimize");
+        minimizeItem.addActionListener(this);
+        machineMenu.add(minimizeItem);
+
+        add(machineMenu);
+
         JMenu helpMenu = new JMenu("Help");
         helpMenu.setBorder(new EmptyBorder(5, 5, 5, 5));
 
@@ -0,0 +1,178 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Checks that NFAParser reads a file the same way whether or not it takes its
+ * fast path, which reads lines straight from the byte buffer, or reads every
+ * line with String.split as the parser always used to. Random files are
+ * generated in the layout NFA.save writes, and most are then damaged a
+ * little, with doubled spaces, signs, digits outside ASCII, other line
+ * endings, odd words and cut lines, so that both paths are taken and errors
+ * are made. Each file must give the same NFA, or the same error, both ways.
+ *
+ * Usage: java LMParserCheck [seed [files]]
+ *
+ * The exit status is 0 if every file agreed and 1 otherwise, in which case
+ * the first file that didn't is printed.
+ *
+ * static final String[] PIECES: the bits of text files are damaged with
+ * static final String[] RULES: the rule strings transitions are given
+ */
+public class LMParserCheck
+{
+    public static final String[] PIECES =
+        {" ", "  ", "\n", "\r", "\r\n", "#", "+", "-", "0", "1", "12", "\u0663",
+         "TRUE", "true", "false", "True", "a", "a,b", "\u025B", "\uD83D\uDE00",
+         ",", "\u00FC", "startstate", "state", "transition", "99999999999",
+         "2147483648", "-2147483648", "\t", "x"};
+    public static final String[] RULES =
+        {"", "a", "a,b", "a,a", "\u025B", "\u025B,\uD83D\uDE00,b", "\u00FC,\u025B", "a,b,c,d"};
+
+    /**
+     * Checks generated files and prints how many agreed.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        long seed = 1;
+        int files = 10000;
+        if (args.length > 0)
+        {
+            seed = Long.parseLong(args[0]);
+        }
+        if (args.length > 1)
+        {
+            files = Integer.parseInt(args[1]);
+        }
+
+        Random random = new Random(seed);
+        for (int i = 0; i < files; i++)
+        {
+            String text = damage(generate(random), random);
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            String fast = describe(bytes, true);
+            String slow = describe(bytes, false);
+            if (!fast.equals(slow))
+            {
+                System.out.println("File " + i + " was read differently:");
+                System.out.println(text);
+                System.out.println("Fast path: " + fast);
+                System.out.println("String.split: " + slow);
+                System.exit(1);
+            }
+        }
+        System.out.println(files + " files read the same both ways");
+    }
+
+    /**
+     * Generates a saved NFA laid out the way NFA.save writes it.
+     *
+     * Random random: where to get the NFA from
+     *
+     * Returns the text of the file.
+     */
+    public static String generate(Random random)
+    {
+        StringBuilder text = new StringBuilder();
+        int states = 1 + random.nextInt(8);
+        for (int s = 0; s < states; s++)
+        {
+            text.append(s == 0 ? "startstate " : "state ")
+                .append(random.nextInt(2000) - 100).append(' ')
+                .append(random.nextInt(2000) - 100).append(' ')
+                .append(random.nextBoolean()).append('\n');
+        }
+        text.append("#\n");
+        int transitions = random.nextInt(states * 2 + 1);
+        for (int t = 0; t < transitions; t++)
+        {
+            text.append("transition ")
+                .append(random.nextInt(states)).append(' ')
+                .append(random.nextInt(states)).append(' ')
+                .append(random.nextBoolean());
+            if (random.nextInt(8) != 0)
+            {
+                text.append(' ').append(RULES[random.nextInt(RULES.length)]);
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Damages a file a little, or leaves it alone.
+     *
+     * String text: the file to damage
+     * Random random: where to get the damage from
+     *
+     * Returns the damaged text.
+     */
+    public static String damage(String text, Random random)
+    {
+        int changes = random.nextInt(4);
+        for (int c = 0; c < changes; c++)
+        {
+            int at = random.nextInt(text.length() + 1);
+            int kind = random.nextInt(3);
+            if (kind == 0)
+            {
+                text = text.substring(0, at) + PIECES[random.nextInt(PIECES.length)] + text.substring(at);
+            }
+            else if (kind == 1 && at < text.length())
+            {
+                int end = Math.min(text.length(), at + 1 + random.nextInt(3));
+                text = text.substring(0, at) + text.substring(end);
+            }
+            else
+            {
+                text = text.replace("\n", random.nextBoolean() ? "\r\n" : "\r");
+            }
+        }
+        if (random.nextInt(5) == 0 && text.endsWith("\n"))
+        {
+            text = text.substring(0, text.length() - 1);
+        }
+        return text;
+    }
+
+    /**
+     * Reads a file with or without the fast path and describes what was
+     * read, or the error it gave.
+     *
+     * byte[] bytes: the file
+     * boolean fastPath: true to let NFAParser read lines from its buffer
+     *
+     * Returns a description of the NFA or the error.
+     */
+    public static String describe(byte[] bytes, boolean fastPath) throws IOException
+    {
+        CompactNFA graph;
+        try
+        {
+            graph = NFAParser.read(new ByteArrayInputStream(bytes), fastPath);
+        }
+        catch (NFAFormatException e)
+        {
+            return "error " + e.getMessage();
+        }
+
+        StringBuilder description = new StringBuilder();
+        for (int s = 0; s < graph.getStateCount(); s++)
+        {
+            description.append("state ").append(graph.getXPos(s)).append(' ')
+                .append(graph.getYPos(s)).append(' ').append(graph.isAcceptState(s)).append("; ");
+        }
+        for (int t = 0; t < graph.getTransitionCount(); t++)
+        {
+            description.append("transition ").append(graph.getTransitionFrom(t)).append(' ')
+                .append(graph.getTransitionTo(t)).append(' ').append(graph.isTangent(t));
+            if (graph.hasRuleArgument(t))
+            {
+                description.append(" [").append(graph.getRuleString(t)).append(']');
+            }
+            description.append("; ");
+        }
+        return description.toString();
+    }
+}
@@ -0,0 +1,119 @@
+import java.util.List;
+import javax.swing.SwingWorker;
+
+/**
+ * Runs an NFA snapshot on the user's input on a background thread, so that
+ * a long input or a slow NFA doesn't freeze the GUI. Every so often the
+ * worker reports how far it has got to the input toolbar, and it stops as
+ * soon as it is cancelled. The snapshot must be taken on the event dispatch
+ * thread before the worker is started; after that the user can go on
+ * editing the NFA without affecting the run.
+ *
+ * static final int PROGRESS_INTERVAL: the number of characters read between
+ *      progress reports and checks for cancellation
+ * LMInputToolbar inputToolbar: the toolbar to report progress and the
+ *      result to
+ * NFASnapshot graph: the snapshot being run
+ * String input: the input being run
+ */
+public class LMRunWorker
+    extends SwingWorker<Boolean, int[]>
+{
+    public static final int PROGRESS_INTERVAL = 1 << 14;
+
+    private LMInputToolbar inputToolbar;
+    private NFASnapshot graph;
+    private String input;
+
+    /**
+     * Constructor for LMRunWorker.
+     *
+     * LMInputToolbar inputToolbar: the toolbar to report to
+     * NFASnapshot graph: the snapshot to run
+     * String input: the input to run it on
+     */
+    public LMRunWorker(LMInputToolbar inputToolbar, NFASnapshot graph, String input)
+    {
+        this.inputToolbar = inputToolbar;
+        this.graph = graph;
+        this.input = input;
+    }
+
+    /**
+     * Returns the snapshot being run.
+     */
+    public NFASnapshot getSnapshot()
+    {
+        return graph;
+    }
+
+    /**
+     * Runs the snapshot with the set simulation, reporting the number of
+     * characters read and states active every PROGRESS_INTERVAL characters.
+     * Stops early if every state dies or the worker is cancelled.
+     *
+     * Returns true if the snapshot accepts the input and false otherwise,
+     * or null if the worker was cancelled.
+     */
+    protected Boolean doInBackground()
+    {
+        NFAMatcher matcher = new NFAMatcher(graph);
+        int length = input.length();
+        int i = 0;
+        int sinceReport = 0;
+        while (i < length)
+        {
+            int c = input.codePointAt(i);
+            i += Character.charCount(c);
+            if (!matcher.step(c))
+            {
+                return false;
+            }
+            if (++sinceReport == PROGRESS_INTERVAL)
+            {
+                if (isCancelled())
+                {
+                    return null;
+                }
+                publish(new int[] {i, matcher.getActiveStateCount()});
+                sinceReport = 0;
+            }
+        }
+        return matcher.isAccepting();
+    }
+
+    /**
+     * Shows the latest progress report in the input toolbar. Called on the
+     * event dispatch thread.
+     *
+     * List<int[]> chunks: the reports published since the last call, each
+     *      the number of characters read and the number of active states
+     */
+    protected void process(List<int[]> chunks)
+    {
+        if (!isCancelled())
+        {
+            int[] latest = chunks.get(chunks.size() - 1);
+            inputToolbar.showRunProgress(this, latest[0], input.length(), latest[1]);
+        }
+    }
+
+    /**
+     * Shows the result in the input toolbar if the run finished without
+     * being cancelled. Called on the event dispatch thread.
+     */
+    protected void done()
+    {
+        if (!isCancelled())
+        {
+            try
+            {
+                inputToolbar.showRunResult(this, get());
+            }
+            catch (Exception e)
+            {
+                inputToolbar.showRunFailure(this, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,343 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Runs a saved NFA from the command line, for pipelines that can't open the
+ * Language Machine's window. The NFA file is read with NFAParser straight
+ * into a snapshot, so no Swing or AWT class is ever loaded and the runner
+ * works with java.awt.headless=true.
+ *
+ * Usage: java LMRunner [-engine name] [-json] nfa-file [input-file ...]
+ *
+ * Each line of each input file is one input, or each line of standard input
+ * if no input files are given. For every input a line is printed with
+ * whether it was accepted and how long the run took, and a summary is
+ * printed at the end. With -json every line printed is a JSON object.
+ *
+ * The engines are set (the default), bitset, lazy-dfa, dfa and stack; the
+ * backtracking engine needs the NFA's State objects, so it can't be used.
+ * The exit status is 0 if every input was run, 1 for bad arguments, 2 if a
+ * file couldn't be read or the NFA file isn't in the format NFA.save writes,
+ * and 3 if the engine can't run the NFA: its DFA would be too large for the
+ * dfa engine, or it has too many states for the bitset engine.
+ *
+ * NFASnapshot graph: the NFA being run
+ * int engine: the engine to run with
+ * NFAMatcher setMatcher, BitSetMatcher bitSetMatcher, LazyDFA lazyDFA,
+ *      DFA dfa, StackMatcher stackMatcher: the engine's matcher (only the
+ *      one for engine is set)
+ * boolean json: true to print JSON lines instead of plain text
+ * PrintStream out: where results are printed
+ * long accepted, rejected: the number of inputs accepted and rejected
+ * long runNanos: the total time spent running inputs
+ */
+public class LMRunner
+{
+    private NFASnapshot graph;
+    private int engine;
+    private NFAMatcher setMatcher;
+    private BitSetMatcher bitSetMatcher;
+    private LazyDFA lazyDFA;
+    private DFA dfa;
+    private StackMatcher stackMatcher;
+    private boolean json;
+    private PrintStream out;
+    private long accepted;
+    private long rejected;
+    private long runNanos;
+
+    /**
+     * Constructor for LMRunner. Builds the engine's matcher.
+     *
+     * NFASnapshot graph: the NFA to run
+     * int engine: NFA.SET_ENGINE, NFA.STACK_ENGINE, NFA.DFA_ENGINE,
+     *      NFA.LAZY_DFA_ENGINE or NFA.BITSET_ENGINE
+     * boolean json: true to print JSON lines instead of plain text
+     * PrintStream out: where to print results
+     *
+     * Throws IllegalStateException for NFA.DFA_ENGINE if the DFA would be
+     * too large, and for NFA.BITSET_ENGINE if the NFA has more than
+     * BitSetMatcher.MAX_STATES states.
+     */
+    public LMRunner(NFASnapshot graph, int engine, boolean json, PrintStream out)
+    {
+        if (engine == NFA.SET_ENGINE)
+        {
+            setMatcher = new NFAMatcher(graph);
+        }
+        else if (engine == NFA.BITSET_ENGINE)
+        {
+            bitSetMatcher = new BitSetMatcher(graph);
+        }
+        else if (engine == NFA.LAZY_DFA_ENGINE)
+        {
+            lazyDFA = new LazyDFA(graph);
+        }
+        else if (engine == NFA.DFA_ENGINE)
+        {
+            dfa = DFA.compile(graph);
+        }
+        else if (engine == NFA.STACK_ENGINE)
+        {
+            stackMatcher = new StackMatcher(graph);
+        }
+        else
+        {
+            throw new IllegalArgumentException("Engine " + engine + " can't be run from the command line");
+        }
+        this.graph = graph;
+        this.engine = engine;
+        this.json = json;
+        this.out = out;
+    }
+
+    /**
+     * Reads the arguments, loads the NFA and runs every input.
+     */
+    public static void main(String[] args)
+    {
+        int engine = NFA.SET_ENGINE;
+        boolean json = false;
+        int a = 0;
+        while (a < args.length && args[a].startsWith("-"))
+        {
+            if (args[a].equals("-json"))
+            {
+                json = true;
+            }
+            else if (args[a].equals("-engine") && a + 1 < args.length)
+            {
+                engine = engineNamed(args[++a]);
+                if (engine < 0)
+                {
+                    usage("Unknown engine: " + args[a]);
+                }
+            }
+            else
+            {
+                usage("Unknown option: " + args[a]);
+            }
+            a++;
+        }
+        if (a == args.length)
+        {
+            usage("No NFA file given");
+        }
+
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+        try
+        {
+            long start = System.nanoTime();
+            NFASnapshot graph = NFAParser.parse(new File(args[a]));
+            LMRunner runner = new LMRunner(graph, engine, json, out);
+            long loadNanos = System.nanoTime() - start;
+
+            if (a + 1 == args.length)
+            {
+                runner.runLines(System.in, "-");
+            }
+            for (int i = a + 1; i < args.length; i++)
+            {
+                InputStream in = new FileInputStream(args[i]);
+                try
+                {
+                    runner.runLines(in, args[i]);
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+            runner.printSummary(loadNanos);
+            out.flush();
+        }
+        catch (IOException e)
+        {
+            out.flush();
+            System.err.println("LMRunner: " + e.getMessage());
+            System.exit(2);
+        }
+        catch (IllegalStateException e)
+        {
+            // thrown only by the constructor, when the engine can't run the NFA
+            out.flush();
+            System.err.println("LMRunner: " + e.getMessage());
+            System.exit(3);
+        }
+    }
+
+    /**
+     * Runs the NFA on each line of a stream, decoded as UTF-8, printing the
+     * result of each. The stream is not closed.
+     *
+     * InputStream in: the inputs, one per line
+     * String source: the name of the stream, printed with each result
+     */
+    public void runLines(InputStream in, String source) throws IOException
+    {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+        String line;
+        long lineNumber = 0;
+        while ((line = reader.readLine()) != null)
+        {
+            lineNumber++;
+            long start = System.nanoTime();
+            boolean accepts = run(line);
+            long nanos = System.nanoTime() - start;
+            runNanos += nanos;
+            if (accepts)
+            {
+                accepted++;
+            }
+            else
+            {
+                rejected++;
+            }
+
+            if (json)
+            {
+                out.println("{\"source\":" + quote(source) + ",\"line\":" + lineNumber
+                    + ",\"accepted\":" + accepts + ",\"nanos\":" + nanos + "}");
+            }
+            else
+            {
+                out.println(source + ":" + lineNumber + "\t" + (accepts ? "accept" : "reject")
+                    + "\t" + nanos + "ns");
+            }
+        }
+    }
+
+    /**
+     * Prints the totals of every input run.
+     *
+     * long loadNanos: the time taken to read the NFA and build its matcher
+     */
+    public void printSummary(long loadNanos)
+    {
+        if (json)
+        {
+            out.println("{\"summary\":true,\"engine\":\"" + NFA.ENGINE_NAMES[engine] + "\""
+                + ",\"states\":" + graph.getStateCount()
+                + ",\"inputs\":" + (accepted + rejected) + ",\"accepted\":" + accepted
+                + ",\"rejected\":" + rejected + ",\"loadNanos\":" + loadNanos
+                + ",\"runNanos\":" + runNanos + "}");
+        }
+        else
+        {
+            out.println((accepted + rejected) + " inputs, " + accepted + " accepted, "
+                + rejected + " rejected; " + graph.getStateCount() + " states loaded in "
+                + loadNanos / 1000000 + "ms, run with " + NFA.ENGINE_NAMES[engine] + " in "
+                + runNanos / 1000000 + "ms");
+        }
+    }
+
+    /**
+     * Returns the number of inputs accepted so far.
+     */
+    public long getAcceptedCount()
+    {
+        return accepted;
+    }
+
+    /**
+     * Returns the number of inputs rejected so far.
+     */
+    public long getRejectedCount()
+    {
+        return rejected;
+    }
+
+    /**
+     * Runs the NFA on one input with the runner's engine.
+     *
+     * String input: the input to run the NFA on
+     *
+     * Returns true if the NFA accepts the input and false otherwise.
+     */
+    private boolean run(String input)
+    {
+        if (engine == NFA.SET_ENGINE)
+        {
+            return setMatcher.matches(input, 0);
+        }
+        else if (engine == NFA.BITSET_ENGINE)
+        {
+            return bitSetMatcher.matches(input, 0);
+        }
+        else if (engine == NFA.LAZY_DFA_ENGINE)
+        {
+            return lazyDFA.matches(input, 0);
+        }
+        else if (engine == NFA.DFA_ENGINE)
+        {
+            return dfa.matches(input, 0);
+        }
+        return stackMatcher.matches(input, 0);
+    }
+
+    /**
+     * Returns the number of the engine with the given name, or -1 if there
+     * is none the runner can use.
+     *
+     * String name: the name of the engine
+     */
+    private static int engineNamed(String name)
+    {
+        for (int i = 0; i < NFA.ENGINE_NAMES.length; i++)
+        {
+            if (i != NFA.BACKTRACK_ENGINE && name.equals(NFA.ENGINE_NAMES[i]))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a string as a JSON string literal.
+     *
+     * String s: the string to quote
+     */
+    private static String quote(String s)
+    {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+            {
+                quoted.append('\\').append(c);
+            }
+            else if (c < 0x20)
+            {
+                quoted.append(String.format("\\u%04x", (int) c));
+            }
+            else
+            {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Prints what went wrong with the arguments and how to use the runner,
+     * then exits with status 1.
+     *
+     * String problem: what went wrong
+     */
+    private static void usage(String problem)
+    {
+        System.err.println("LMRunner: " + problem);
+        System.err.println("Usage: java LMRunner [-engine set|bitset|lazy-dfa|dfa|stack] [-json]"
+            + " nfa-file [input-file ...]");
+        System.exit(1);
+    }
+}
@@ -94,6 +94,7 @@ public class LMStateOptionsToolbar
         }
 
         optionsPanel.getInputToolbar().clearAcceptanceText();
+        optionsPanel.getInputToolbar().cancelRunIfOutOfDate();
         optionsPanel.getMessagePanel().clearText();
         optionsPanel.getWorkspacePanel().setModified(true);
     }
@@ -91,6 +91,7 @@ public class LMTransitionOptionsToolbar
         }
 
         optionsPanel.getInputToolbar().clearAcceptanceText();
+        optionsPanel.getInputToolbar().cancelRunIfOutOfDate();
         optionsPanel.getMessagePanel().clearText();
         optionsPanel.getWorkspacePanel().setModified(true);
     }
@@ -266,6 +266,7 @@ public class LMWorkspacePanel
         {
             deleteStateOrTransition(x, y);
         }
+        inputToolbar.cancelRunIfOutOfDate();
     }
 
     /**
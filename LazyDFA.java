@@ -0,0 +1,441 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A DFA that is built while it runs. Instead of compiling every set of NFA
+ * states up front, which can take exponentially many states, a DFA state is
+ * only worked out the first time the input reaches it, and is then cached so
+ * later characters take a single table lookup.
+ *
+ * The cache is kept within a memory budget. When a new state wouldn't fit,
+ * the whole cache is flushed and the run carries on from the current state.
+ * If the cache keeps being flushed after only a few characters per state, it
+ * is thrashing, and the rest of the run falls back to the set simulation.
+ *
+ * A LazyDFA is not safe to use from more than one thread at a time.
+ *
+ * static final long DEFAULT_MEMORY_BUDGET: the budget used unless told
+ *      otherwise
+ * static final int MIN_CHARS_PER_STATE: a flush after fewer characters than
+ *      this per cached state counts as thrashing
+ * static final int MAX_THRASHES: the number of thrashing flushes in one run
+ *      before falling back to the set simulation
+ * NFASnapshot graph: the snapshot being run
+ * Alphabet alphabet: maps code points to the columns of the table
+ * long memoryBudget: the most bytes the cache may use
+ * long memoryUsed: the estimated bytes used by the cached states
+ * ArrayList<int[]> sets: the NFA states of each cached DFA state
+ * HashMap<StateSet, Integer> ids: the cached DFA state of each set
+ * int[] table: cached transitions, UNKNOWN where not yet worked out
+ * boolean[] acceptStates: true at the index of each accept state
+ * int state: the current DFA state
+ * NFAMatcher fallback: the set simulation used once the cache thrashes
+ * boolean usingFallback: true once the current run has fallen back
+ * int[] buffer, mark, int stamp: scratch space for working out new states
+ * long charsSinceFlush: characters read since the cache was last flushed
+ * int thrashes: thrashing flushes seen in the current run
+ * int flushCount: flushes since the LazyDFA was built
+ * long buildWork: NFA states gone through working out new DFA states, and
+ *      edges gone through building the alphabet, since the LazyDFA was built
+ */
+public class LazyDFA
+{
+    public static final long DEFAULT_MEMORY_BUDGET = 8L << 20;
+    public static final int MIN_CHARS_PER_STATE = 10;
+    public static final int MAX_THRASHES = 3;
+
+    private static final int UNKNOWN = -1;
+    private static final int START_STATE = 1;
+    private static final int STATE_OVERHEAD = 64;
+
+    private NFASnapshot graph;
+    private Alphabet alphabet;
+    private int classCount;
+    private long memoryBudget;
+    private long memoryUsed;
+
+    private ArrayList<int[]> sets = new ArrayList<int[]>();
+    private HashMap<StateSet, Integer> ids = new HashMap<StateSet, Integer>();
+    private int[] table;
+    private boolean[] acceptStates;
+    private int state;
+
+    private NFAMatcher fallback;
+    private boolean usingFallback;
+
+    private int[] buffer;
+    private int[] mark;
+    private int stamp;
+
+    private long charsSinceFlush;
+    private int thrashes;
+    private int flushCount;
+    private long buildWork;
+
+    /**
+     * Constructor for LazyDFA with the default memory budget.
+     *
+     * NFASnapshot graph: the snapshot to run
+     */
+    public LazyDFA(NFASnapshot graph)
+    {
+        this(graph, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Constructor for LazyDFA. Caches only the dead state and the start state.
+     *
+     * NFASnapshot graph: the snapshot to run
+     * long memoryBudget: the most bytes the cache of DFA states may use
+     */
+    public LazyDFA(NFASnapshot graph, long memoryBudget)
+    {
+        this(graph, new Alphabet(graph), memoryBudget);
+        // the alphabet goes through every edge
+        buildWork += 2L * graph.getEdgeStart(graph.getStateCount());
+    }
+
+    /**
+     * Constructor for LazyDFA that shares an alphabet already built for the
+     * snapshot, as LazyDFAs running the same snapshot on different threads
+     * can, since an Alphabet is never changed once it is built.
+     *
+     * NFASnapshot graph: the snapshot to run
+     * Alphabet alphabet: the alphabet of the snapshot
+     * long memoryBudget: the most bytes the cache of DFA states may use
+     */
+    public LazyDFA(NFASnapshot graph, Alphabet alphabet, long memoryBudget)
+    {
+        this.graph = graph;
+        this.alphabet = alphabet;
+        this.memoryBudget = memoryBudget;
+        classCount = alphabet.getClassCount();
+        buffer = new int[graph.getStateCount()];
+        mark = new int[graph.getStateCount()];
+        fallback = new NFAMatcher(graph);
+        table = new int[16 * classCount];
+        acceptStates = new boolean[16];
+        buildWork = graph.getStateCount();
+        flush();
+        reset();
+    }
+
+    /**
+     * Returns the snapshot the LazyDFA runs.
+     */
+    public NFASnapshot getSnapshot()
+    {
+        return graph;
+    }
+
+    /**
+     * Returns the alphabet the LazyDFA's table is keyed by.
+     */
+    public Alphabet getAlphabet()
+    {
+        return alphabet;
+    }
+
+    /**
+     * Starts a new run from the start state.
+     */
+    public void reset()
+    {
+        state = START_STATE;
+        usingFallback = false;
+        thrashes = 0;
+    }
+
+    /**
+     * Moves the LazyDFA along the given code point, working out and caching
+     * the next DFA state if it hasn't been reached before.
+     *
+     * int codePoint: the code point to consume
+     *
+     * Returns false if no NFA state is active afterwards, so nothing can
+     * accept.
+     */
+    public boolean step(int codePoint)
+    {
+        if (usingFallback)
+        {
+            return fallback.step(codePoint);
+        }
+        int cls = alphabet.classOf(codePoint);
+        int next = table[state * classCount + cls];
+        if (next == UNKNOWN)
+        {
+            next = addTransition(cls);
+            if (usingFallback)
+            {
+                return !fallback.isDead();
+            }
+        }
+        state = next;
+        charsSinceFlush++;
+        return state != DFA.DEAD_STATE;
+    }
+
+    /**
+     * Returns true if the current state is an accept state.
+     */
+    public boolean isAccepting()
+    {
+        return usingFallback ? fallback.isAccepting() : acceptStates[state];
+    }
+
+    /**
+     * Returns 1 while the run is in a single cached DFA state, and the number
+     * of NFA states active in the set simulation once the run has fallen back
+     * to it.
+     */
+    public int getActiveStateCount()
+    {
+        return usingFallback ? fallback.getActiveStateCount() : 1;
+    }
+
+    /**
+     * Returns true if no NFA state is active, so no more input can be
+     * accepted.
+     */
+    public boolean isDead()
+    {
+        return usingFallback ? fallback.isDead() : state == DFA.DEAD_STATE;
+    }
+
+    /**
+     * Runs the LazyDFA from the start state over the code points of the
+     * input from the given offset to the end. Surrogate pairs are read as a
+     * single code point.
+     *
+     * CharSequence input: the input to run on
+     * int offset: the index of the first char to read
+     *
+     * Returns true if the input is accepted and false otherwise.
+     */
+    public boolean matches(CharSequence input, int offset)
+    {
+        reset();
+        int length = input.length();
+        int i = offset;
+        while (i < length)
+        {
+            int c = input.charAt(i++);
+            if (Character.isHighSurrogate((char) c) && i < length
+                && Character.isLowSurrogate(input.charAt(i)))
+            {
+                c = Character.toCodePoint((char) c, input.charAt(i++));
+            }
+            if (!step(c))
+            {
+                return false;
+            }
+        }
+        return isAccepting();
+    }
+
+    /**
+     * Runs the LazyDFA from the start state over part of an array of code
+     * points.
+     *
+     * int[] codePoints: the input to run on
+     * int offset: the index of the first code point to read
+     * int length: the number of code points to read
+     *
+     * Returns true if the input is accepted and false otherwise.
+     */
+    public boolean matches(int[] codePoints, int offset, int length)
+    {
+        reset();
+        for (int i = offset; i < offset + length; i++)
+        {
+            if (!step(codePoints[i]))
+            {
+                return false;
+            }
+        }
+        return isAccepting();
+    }
+
+    /**
+     * Returns the number of DFA states currently cached.
+     */
+    public int getCachedStateCount()
+    {
+        return sets.size();
+    }
+
+    /**
+     * Returns the estimated number of bytes used by the cache.
+     */
+    public long getMemoryUsed()
+    {
+        return memoryUsed;
+    }
+
+    /**
+     * Returns the number of times the cache has been flushed.
+     */
+    public int getFlushCount()
+    {
+        return flushCount;
+    }
+
+    /**
+     * Returns the number of NFA states gone through working out new DFA
+     * states since the LazyDFA was built, counting both the states moved from
+     * and the states reached, and the edges gone through building the
+     * alphabet. A step over a cached transition adds nothing.
+     */
+    public long getBuildWork()
+    {
+        return buildWork;
+    }
+
+    /**
+     * Returns the build work along with the states and edges the set
+     * simulation has gone through after runs fell back to it, for charging to
+     * a run's budget.
+     */
+    public long getWork()
+    {
+        return buildWork + fallback.getWork();
+    }
+
+    /**
+     * Works out the DFA state reached from the current state on the given
+     * class and caches the transition. Flushes the cache first if the new
+     * state wouldn't fit, and switches the run to the set simulation if the
+     * cache is thrashing.
+     *
+     * int cls: the character class consumed
+     *
+     * Returns the index of the DFA state reached.
+     */
+    private int addTransition(int cls)
+    {
+        int[] set = sets.get(state);
+        nextStamp();
+        int size = DFA.move(graph, set, alphabet.getRepresentative(cls), buffer, mark, stamp);
+        buildWork += set.length + size;
+        int[] target = Arrays.copyOf(buffer, size);
+        Arrays.sort(target);
+
+        StateSet key = new StateSet(target);
+        Integer id = ids.get(key);
+        if (id == null)
+        {
+            if (memoryUsed + stateSize(target) > memoryBudget)
+            {
+                if (charsSinceFlush < (long) MIN_CHARS_PER_STATE * sets.size())
+                {
+                    thrashes++;
+                }
+                if (thrashes >= MAX_THRASHES || sets.size() <= START_STATE + 1)
+                {
+                    // the budget can't hold enough states to be worth caching
+                    usingFallback = true;
+                    fallback.setActiveStates(target, target.length);
+                    return DFA.DEAD_STATE;
+                }
+                flush();
+                state = addState(set);
+            }
+            id = addState(target);
+        }
+        table[state * classCount + cls] = id;
+        return id;
+    }
+
+    /**
+     * Throws away every cached state except the dead state and the start
+     * state.
+     */
+    private void flush()
+    {
+        if (!sets.isEmpty())
+        {
+            flushCount++;
+        }
+        sets.clear();
+        ids.clear();
+        memoryUsed = 0;
+        charsSinceFlush = 0;
+        addState(new int[0]);
+        int[] start = graph.getEpsilonClosure(graph.getStartState()).clone();
+        Arrays.sort(start);
+        buildWork += start.length;
+        addState(start);
+    }
+
+    /**
+     * Caches a new DFA state with every transition unknown.
+     *
+     * int[] set: the sorted NFA states of the DFA state
+     *
+     * Returns the index of the new DFA state, or of the cached state if the
+     * set is already cached.
+     */
+    private int addState(int[] set)
+    {
+        StateSet key = new StateSet(set);
+        Integer id = ids.get(key);
+        if (id != null)
+        {
+            return id;
+        }
+
+        int d = sets.size();
+        if ((d + 1) * classCount > table.length)
+        {
+            table = Arrays.copyOf(table, table.length * 2);
+            acceptStates = Arrays.copyOf(acceptStates, acceptStates.length * 2);
+        }
+        sets.add(set);
+        ids.put(key, d);
+        memoryUsed += stateSize(set);
+
+        boolean accept = false;
+        for (int s : set)
+        {
+            if (graph.isAcceptState(s))
+            {
+                accept = true;
+            }
+        }
+        acceptStates[d] = accept;
+
+        // the dead state only ever goes to itself
+        int fill = d == DFA.DEAD_STATE ? DFA.DEAD_STATE : UNKNOWN;
+        for (int c = 0; c < classCount; c++)
+        {
+            table[d * classCount + c] = fill;
+        }
+        return d;
+    }
+
+    /**
+     * Returns the estimated number of bytes a cached state takes up.
+     *
+     * int[] set: the NFA states of the DFA state
+     */
+    private long stateSize(int[] set)
+    {
+        return 4L * classCount + 4L * set.length + STATE_OVERHEAD;
+    }
+
+    /**
+     * Moves on to a new mark value, clearing the marks in the rare case that
+     * the stamp wraps around.
+     */
+    private void nextStamp()
+    {
+        if (stamp == Integer.MAX_VALUE)
+        {
+            Arrays.fill(mark, 0);
+            stamp = 0;
+        }
+        stamp++;
+    }
+}
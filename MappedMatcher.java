@@ -0,0 +1,210 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Runs a compiled DFA over a file by mapping the file into memory, so that a
+ * file the operating system already has cached is read without copying it.
+ * Files are mapped one window at a time, since a single mapping can't be
+ * larger than 2GB.
+ *
+ * When every code point the DFA's rules use is a single byte in the file's
+ * encoding (below 256 for ISO-8859-1, below 128 for US-ASCII and UTF-8), the
+ * DFA is run straight over the mapped bytes with no decoding at all: any
+ * other byte can only be part of a character no rule accepts, which kills
+ * the DFA just as decoding it would. Otherwise the mapped bytes are decoded
+ * into a reused buffer a chunk at a time.
+ *
+ * A MappedMatcher is not safe to use from more than one thread at a time.
+ *
+ * static final long WINDOW_SIZE: the most bytes mapped at once
+ * DFA dfa: the DFA to run
+ * int[] byteClasses: the character class of each byte value
+ * int maxCodePoint: the largest code point any rule uses, or -1 if none
+ * StreamMatcher decoded: runs the DFA over decoded chars
+ * CharBuffer chars: the buffer decoded chars are put in
+ * long bytesRead: the number of bytes read in the last run
+ */
+public class MappedMatcher
+{
+    public static final long WINDOW_SIZE = 1L << 30;
+
+    private DFA dfa;
+    private int[] byteClasses = new int[256];
+    private int maxCodePoint = -1;
+    private StreamMatcher decoded;
+    private CharBuffer chars;
+    private long bytesRead;
+
+    /**
+     * Constructor for MappedMatcher.
+     *
+     * NFA nfa: the NFA to run, which must have been compiled since it last
+     *      changed
+     */
+    public MappedMatcher(NFA nfa)
+    {
+        dfa = nfa.getDFA();
+        if (dfa == null)
+        {
+            throw new IllegalStateException("The NFA has not been compiled since it last changed");
+        }
+        Alphabet alphabet = dfa.getAlphabet();
+        for (int b = 0; b < 256; b++)
+        {
+            byteClasses[b] = alphabet.classOf(b);
+        }
+        for (int c = 0; c < alphabet.getClassCount(); c++)
+        {
+            int[] codePoints = alphabet.getCodePoints(c);
+            if (codePoints.length > 0)
+            {
+                maxCodePoint = Math.max(maxCodePoint, codePoints[codePoints.length - 1]);
+            }
+        }
+        decoded = new StreamMatcher(nfa, NFA.DFA_ENGINE);
+        chars = CharBuffer.allocate(StreamMatcher.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Returns true if the DFA can be run straight over the bytes of a file
+     * in the given encoding.
+     *
+     * Charset charset: the encoding of the file
+     */
+    public boolean canReadRawBytes(Charset charset)
+    {
+        if (charset.equals(StandardCharsets.ISO_8859_1))
+        {
+            return maxCodePoint < 256;
+        }
+        if (charset.equals(StandardCharsets.US_ASCII) || charset.equals(StandardCharsets.UTF_8))
+        {
+            return maxCodePoint < 128;
+        }
+        return false;
+    }
+
+    /**
+     * Runs the DFA over the whole of a file, stopping as soon as the input is
+     * rejected. Malformed input is read as U+FFFD.
+     *
+     * File file: the file to run the DFA on
+     * Charset charset: the encoding of the file
+     *
+     * Returns true if the DFA accepts the contents of the file and false
+     * otherwise. Throws IOException if the file can't be read.
+     */
+    public boolean matches(File file, Charset charset) throws IOException
+    {
+        bytesRead = 0;
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = in.getChannel();
+            if (canReadRawBytes(charset))
+            {
+                return matchBytes(channel);
+            }
+            return matchDecoded(channel, charset);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Returns the number of bytes read by the last run, which is less than
+     * the size of the file if the input was rejected early.
+     */
+    public long getBytesRead()
+    {
+        return bytesRead;
+    }
+
+    /**
+     * Runs the DFA over the mapped bytes of a file, one byte per character.
+     *
+     * FileChannel channel: the file
+     *
+     * Returns true if the DFA accepts the file and false otherwise.
+     */
+    private boolean matchBytes(FileChannel channel) throws IOException
+    {
+        long size = channel.size();
+        int state = dfa.getStartState();
+        long position = 0;
+        while (position < size)
+        {
+            int length = (int) Math.min(WINDOW_SIZE, size - position);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            for (int i = 0; i < length; i++)
+            {
+                state = dfa.next(state, byteClasses[window.get(i) & 0xff]);
+                if (state == DFA.DEAD_STATE)
+                {
+                    bytesRead = position + i + 1;
+                    return false;
+                }
+            }
+            position += length;
+            bytesRead = position;
+        }
+        return dfa.isAcceptState(state);
+    }
+
+    /**
+     * Runs the DFA over the decoded characters of a mapped file. A character
+     * split between two windows is decoded by starting the next window at
+     * the first byte the decoder didn't use.
+     *
+     * FileChannel channel: the file
+     * Charset charset: the encoding of the file
+     *
+     * Returns true if the DFA accepts the file and false otherwise.
+     */
+    private boolean matchDecoded(FileChannel channel, Charset charset) throws IOException
+    {
+        CharsetDecoder decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        decoded.reset();
+        long size = channel.size();
+        long position = 0;
+        boolean endOfInput = false;
+        while (!endOfInput)
+        {
+            int length = (int) Math.min(WINDOW_SIZE, size - position);
+            endOfInput = position + length == size;
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            CoderResult result;
+            do
+            {
+                chars.clear();
+                result = decoder.decode(window, chars, endOfInput);
+                if (endOfInput && result.isUnderflow())
+                {
+                    decoder.flush(chars);
+                }
+                if (!decoded.feed(chars.array(), 0, chars.position()))
+                {
+                    bytesRead = position + window.position();
+                    return false;
+                }
+            }
+            while (result.isOverflow());
+            position += window.position();
+            bytesRead = position;
+        }
+        return decoded.finish();
+    }
+}
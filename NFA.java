@@ -1,10 +1,12 @@
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ForkJoinPool;
 import java.io.*;
-import javax.swing.JOptionPane;
-import javax.swing.JFileChooser;
-import java.awt.Component;
-import java.lang.NumberFormatException;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Written by Daniel Barter, Alby Himelick, and Grace Whitmore.
@@ -15,11 +17,76 @@ import java.lang.NumberFormatException;
  *
  * ArrayList<State> states: the arraylist containing all the states of the NFA
  * StartState startState: the start state of the NFA
+ * long version: counts the changes made to the NFA's states, transitions and
+ *      rules
+ * NFASnapshot snapshot: the index-based copy of the NFA used for running it,
+ *      which is out of date if its version isn't the NFA's version
+ * NFAMatcher matcher: the set simulation reused by every run of the current
+ *      snapshot
+ * DFA dfa: the DFA compiled from the current snapshot, or null if the NFA
+ *      hasn't been compiled since it last changed
+ * LazyDFA lazyDFA: the DFA built while running, reused by every run of the
+ *      current snapshot
+ * long lazyDFAMemoryBudget: the most bytes lazyDFA's cache may use
+ * BitSetMatcher bitSetMatcher: the bit-parallel simulation reused by every
+ *      run of the current snapshot
+ * StackMatcher stackMatcher: the work stack search reused by every run of
+ *      the current snapshot
+ * IdentityHashMap<State, Integer> backtrackIndex, BitSet[] backtrackVisited,
+ *      ArrayList<String> backtrackInput: the backtracking engine's state
+ *      index, visited positions and input, reused by every run of the
+ *      version backtrackVersion
+ * RunBudget runBudget: the caps on the work runWithBudget() may do unless
+ *      it is given others
+ * static final ints: public names for each of the ways to run the NFA, and
+ *      for the outcomes of runWithBudget()
+ * static final String[] ENGINE_NAMES: the name of each engine, by number,
+ *      as the benchmark and the command line runner print them
+ * static final String[] LATIN_1_STRINGS: the one character string of each
+ *      char below 256, so the backtracking engine makes no string for them
  */
 public class NFA
 {
     private ArrayList<State> states = new ArrayList<State>();
     private StartState startState;
+    private volatile long version;
+    private volatile NFASnapshot snapshot;
+    private NFAMatcher matcher;
+    private DFA dfa;
+    private LazyDFA lazyDFA;
+    private long lazyDFAMemoryBudget = LazyDFA.DEFAULT_MEMORY_BUDGET;
+    private BitSetMatcher bitSetMatcher;
+    private StackMatcher stackMatcher;
+    private IdentityHashMap<State, Integer> backtrackIndex;
+    private BitSet[] backtrackVisited;
+    private ArrayList<String> backtrackInput = new ArrayList<String>();
+    private long backtrackVersion;
+    private RunBudget runBudget = RunBudget.UNLIMITED;
+
+    public static final int
+        BACKTRACK_ENGINE = 0,
+        SET_ENGINE = 1,
+        STACK_ENGINE = 2,
+        DFA_ENGINE = 3,
+        LAZY_DFA_ENGINE = 4,
+        BITSET_ENGINE = 5;
+
+    public static final String[] ENGINE_NAMES =
+        {"backtrack", "set", "stack", "dfa", "lazy-dfa", "bitset"};
+
+    public static final int
+        REJECTED = 0,
+        ACCEPTED = 1,
+        BUDGET_EXCEEDED = 2;
+
+    private static final String[] LATIN_1_STRINGS = new String[256];
+    static
+    {
+        for (int c = 0; c < LATIN_1_STRINGS.length; c++)
+        {
+            LATIN_1_STRINGS[c] = String.valueOf((char) c);
+        }
+    }
 
     /**
      * Constructor for NFA. Initializes the NFA with the given start state.
@@ -53,6 +120,164 @@ public class NFA
         return startState;
     }
 
+    /**
+     * Returns the index-based snapshot of the NFA, building it first if the
+     * NFA has changed since the last one was built. Taking a snapshot of an
+     * unchanged NFA again returns the same snapshot without copying anything.
+     *
+     * The snapshot must be taken on the thread that edits the NFA (the event
+     * dispatch thread for the GUI), since it reads the states and transitions.
+     * Once taken it never changes, so it can be run, compiled or handed to
+     * other threads while the NFA goes on being edited.
+     */
+    public NFASnapshot getSnapshot()
+    {
+        NFASnapshot graph = snapshot;
+        if (graph == null || graph.getVersion() != version)
+        {
+            graph = new NFASnapshot(this);
+            snapshot = graph;
+        }
+        return graph;
+    }
+
+    /**
+     * Returns the NFA's version, which goes up every time a state, transition
+     * or rule changes. A snapshot is out of date when its version differs.
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Returns the set simulation matcher for the current snapshot, building a
+     * new one only if the NFA has changed since the last one was built.
+     */
+    public NFAMatcher getMatcher()
+    {
+        NFASnapshot graph = getSnapshot();
+        if (matcher == null || matcher.getSnapshot() != graph)
+        {
+            matcher = new NFAMatcher(graph);
+        }
+        return matcher;
+    }
+
+    /**
+     * Returns the bit-parallel matcher for the current snapshot, building a
+     * new one only if the NFA has changed since the last one was built.
+     * Throws IllegalStateException if the NFA has more than
+     * BitSetMatcher.MAX_STATES states.
+     */
+    public BitSetMatcher getBitSetMatcher()
+    {
+        NFASnapshot graph = getSnapshot();
+        if (bitSetMatcher == null || bitSetMatcher.getSnapshot() != graph)
+        {
+            bitSetMatcher = new BitSetMatcher(graph);
+        }
+        return bitSetMatcher;
+    }
+
+    /**
+     * Returns the work stack search for the current snapshot, building a new
+     * one only if the NFA has changed since the last one was built.
+     */
+    public StackMatcher getStackMatcher()
+    {
+        NFASnapshot graph = getSnapshot();
+        if (stackMatcher == null || stackMatcher.getSnapshot() != graph)
+        {
+            stackMatcher = new StackMatcher(graph);
+        }
+        return stackMatcher;
+    }
+
+    /**
+     * Returns the lazily built DFA for the current snapshot, building a new
+     * one only if the NFA has changed since the last one was built. Its cache
+     * of DFA states carries over from one run to the next.
+     */
+    public LazyDFA getLazyDFA()
+    {
+        NFASnapshot graph = getSnapshot();
+        if (lazyDFA == null || lazyDFA.getSnapshot() != graph)
+        {
+            lazyDFA = new LazyDFA(graph, lazyDFAMemoryBudget);
+        }
+        return lazyDFA;
+    }
+
+    /**
+     * Sets the most memory the lazily built DFA may use for its cache of DFA
+     * states. Throws away the current cache.
+     *
+     * long bytes: the memory budget in bytes
+     */
+    public void setLazyDFAMemoryBudget(long bytes)
+    {
+        lazyDFAMemoryBudget = bytes;
+        lazyDFA = null;
+    }
+
+    /**
+     * Returns the caps on the work runWithBudget() may do unless it is given
+     * others.
+     */
+    public RunBudget getRunBudget()
+    {
+        return runBudget;
+    }
+
+    /**
+     * Sets the caps on the work runWithBudget() may do unless it is given
+     * others.
+     *
+     * RunBudget budget: the caps, or RunBudget.UNLIMITED for none
+     */
+    public void setRunBudget(RunBudget budget)
+    {
+        runBudget = budget;
+    }
+
+    /**
+     * Compiles the NFA into a DFA, which is then used by every DFA_ENGINE run
+     * until the NFA changes. Compiling an unchanged NFA again reuses the DFA
+     * that was already built.
+     *
+     * Returns the compiled DFA, whose toString() reports its size. Throws
+     * IllegalStateException if the DFA would be too large.
+     */
+    public DFA compile()
+    {
+        if (dfa == null)
+        {
+            dfa = DFA.compile(getSnapshot());
+        }
+        return dfa;
+    }
+
+    /**
+     * Returns the compiled DFA, or null if the NFA hasn't been compiled since
+     * it last changed.
+     */
+    public DFA getDFA()
+    {
+        return dfa;
+    }
+
+    /**
+     * Moves the NFA on to a new version and throws away the DFA, so that the
+     * next run takes a new snapshot and rebuilds whatever it needs. Called
+     * whenever states, transitions or rules change.
+     */
+    public void graphChanged()
+    {
+        version++;
+        dfa = null;
+    }
+
     /**
      * Adds a state to the NFA.
      *
@@ -61,6 +286,8 @@ public class NFA
     public void addState(State s)
     {
         states.add(s);
+        s.setNFA(this);
+        graphChanged();
     }
 
     /**
@@ -82,6 +309,8 @@ public class NFA
             fromState.getTransitionsOut().remove(t);
         }
         states.remove(s);
+        s.setNFA(null);
+        graphChanged();
     }
 
     /**
@@ -97,29 +326,662 @@ public class NFA
             s.getTransitionsOut().remove(t);
             s.getTransitionsIn().remove(t);
         }
+        graphChanged();
     }
 
     /**
-     * Wrapper for recursive run() method. Parses the given input string into
-     * an arraylist of single character strings and passes that list and the
-     * start state to the recursive method.
+     * Runs the NFA on the given input string using the set simulation engine.
      *
      * String inputString: the string to run the NFA on
      */
     public boolean run(String inputString)
     {
-        ArrayList<String> inputList = new ArrayList<String>();
-        for (int i = 0; i < inputString.length(); i++)
+        return run(inputString, SET_ENGINE);
+    }
+
+    /**
+     * Runs the NFA on the given input string with the given engine. The input
+     * is read one code point at a time, so characters outside the Basic
+     * Multilingual Plane are matched as a single character. Epsilon (U+025B)
+     * only ever labels transitions that read nothing, so no engine accepts an
+     * input with a literal epsilon in it.
+     *
+     * CharSequence inputString: the string to run the NFA on
+     * int engine: BACKTRACK_ENGINE for the recursive run() method,
+     *      SET_ENGINE for the set simulation, STACK_ENGINE for the
+     *      non-recursive depth first search, DFA_ENGINE for the DFA built
+     *      by compile(), LAZY_DFA_ENGINE for the DFA built while running or
+     *      BITSET_ENGINE for the bit-parallel simulation
+     *
+     * Returns true if the NFA accepts the input string and false otherwise.
+     * Throws IllegalStateException for DFA_ENGINE if the NFA hasn't been
+     * compiled since it last changed, and for BITSET_ENGINE if the NFA has
+     * more than BitSetMatcher.MAX_STATES states.
+     */
+    public boolean run(CharSequence inputString, int engine)
+    {
+        if (engine == BACKTRACK_ENGINE)
+        {
+            return runBacktracking(inputString, null);
+        }
+        else if (engine == SET_ENGINE)
+        {
+            return accepts(inputString, 0);
+        }
+        else if (engine == STACK_ENGINE)
         {
-            inputList.add(Character.toString(inputString.charAt(i)));
+            return getStackMatcher().matches(inputString, 0);
         }
-        return run(startState, inputList);
+        else if (engine == DFA_ENGINE)
+        {
+            if (dfa == null)
+            {
+                throw new IllegalStateException("The NFA has not been compiled since it last changed");
+            }
+            return dfa.matches(inputString, 0);
+        }
+        else if (engine == LAZY_DFA_ENGINE)
+        {
+            return getLazyDFA().matches(inputString, 0);
+        }
+        else if (engine == BITSET_ENGINE)
+        {
+            return getBitSetMatcher().matches(inputString, 0);
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+    }
+
+    /**
+     * Runs the NFA on the given input string with the given engine, within
+     * the NFA's run budget.
+     *
+     * CharSequence inputString: the string to run the NFA on
+     * int engine: the engine to run with, as for run(CharSequence, int)
+     *
+     * Returns ACCEPTED, REJECTED or BUDGET_EXCEEDED.
+     */
+    public int runWithBudget(CharSequence inputString, int engine)
+    {
+        return runWithBudget(inputString, engine, runBudget);
+    }
+
+    /**
+     * Runs the NFA on the given input string with the given engine, stopping
+     * as soon as the run goes over any of the caps of a budget.
+     *
+     * CharSequence inputString: the string to run the NFA on
+     * int engine: the engine to run with, as for run(CharSequence, int)
+     * RunBudget budget: the caps on the work the run may do
+     *
+     * Returns ACCEPTED if the NFA accepts the input string, REJECTED if it
+     * doesn't, and BUDGET_EXCEEDED if the run was stopped before it could
+     * tell. Throws IllegalStateException for DFA_ENGINE if the NFA hasn't
+     * been compiled since it last changed.
+     */
+    public int runWithBudget(CharSequence inputString, int engine, RunBudget budget)
+    {
+        BudgetMeter meter = new BudgetMeter(budget);
+        boolean accepted = false;
+        if (engine == BACKTRACK_ENGINE)
+        {
+            accepted = runBacktracking(inputString, meter);
+        }
+        else if (chargeSnapshot(meter))
+        {
+            if (engine == STACK_ENGINE)
+            {
+                StackMatcher built = stackMatcher;
+                StackMatcher stack = getStackMatcher();
+                if (stack == built || meter.step(stack.getSnapshot().getStateCount(), 0))
+                {
+                    accepted = stack.matches(inputString, 0, meter);
+                }
+            }
+            else
+            {
+                accepted = runMetered(inputString, engine, meter);
+            }
+        }
+
+        if (meter.isExceeded())
+        {
+            return BUDGET_EXCEEDED;
+        }
+        return accepted ? ACCEPTED : REJECTED;
+    }
+
+    /**
+     * Takes the snapshot for a run within a budget, charging the work of
+     * building it to the meter if it has to be built.
+     *
+     * BudgetMeter meter: counts the work done
+     *
+     * Returns false if building the snapshot went over the budget.
+     */
+    private boolean chargeSnapshot(BudgetMeter meter)
+    {
+        NFASnapshot built = snapshot;
+        NFASnapshot graph = getSnapshot();
+        return graph == built || meter.step(graph.getBuildWork(), 0);
+    }
+
+    /**
+     * Runs one of the engines that read the input a code point at a time,
+     * charging the meter with the work each code point really costs: the
+     * states and edges the set simulation goes through, the words and masks
+     * of the bitset simulation, and the NFA states the lazy DFA goes through
+     * working out new DFA states (or the set simulation's work once it has
+     * fallen back), and at least one step per code point. Building the
+     * engine's matcher is charged too if this run has to build it, and the
+     * states active before the first code point are checked against the
+     * cap.
+     *
+     * CharSequence input: the input to run the NFA on
+     * int engine: SET_ENGINE, BITSET_ENGINE, LAZY_DFA_ENGINE or DFA_ENGINE
+     * BudgetMeter meter: counts the work done
+     *
+     * Returns true if the NFA accepts the input and false if it doesn't or
+     * the budget was gone over.
+     */
+    private boolean runMetered(CharSequence input, int engine, BudgetMeter meter)
+    {
+        NFAMatcher setMatcher = null;
+        BitSetMatcher bitSet = null;
+        LazyDFA lazy = null;
+        int dfaState = 0;
+        long buildWork = 0;
+
+        if (engine == SET_ENGINE)
+        {
+            NFAMatcher built = matcher;
+            setMatcher = getMatcher();
+            if (setMatcher != built)
+            {
+                buildWork = setMatcher.getSnapshot().getStateCount();
+            }
+        }
+        else if (engine == BITSET_ENGINE)
+        {
+            BitSetMatcher built = bitSetMatcher;
+            bitSet = getBitSetMatcher();
+            if (bitSet != built)
+            {
+                buildWork = bitSet.getBuildWork();
+            }
+        }
+        else if (engine == LAZY_DFA_ENGINE)
+        {
+            LazyDFA built = lazyDFA;
+            lazy = getLazyDFA();
+            if (lazy != built)
+            {
+                buildWork = lazy.getWork();
+            }
+        }
+        else if (engine == DFA_ENGINE)
+        {
+            if (dfa == null)
+            {
+                throw new IllegalStateException("The NFA has not been compiled since it last changed");
+            }
+            dfaState = dfa.getStartState();
+        }
+        else
+        {
+            throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+
+        // the start state's epsilon closure is active before any input
+        long work = workOf(setMatcher, bitSet, lazy);
+        long startActive = 1;
+        if (engine == SET_ENGINE)
+        {
+            setMatcher.reset();
+            startActive = setMatcher.getActiveStateCount();
+        }
+        else if (engine == BITSET_ENGINE)
+        {
+            bitSet.reset();
+            startActive = bitSet.getActiveStateCount();
+        }
+        else if (engine == LAZY_DFA_ENGINE)
+        {
+            lazy.reset();
+        }
+        long done = workOf(setMatcher, bitSet, lazy);
+        if (!meter.step(buildWork + done - work, startActive))
+        {
+            return false;
+        }
+        work = done;
+
+        int length = input.length();
+        int i = 0;
+        while (i < length)
+        {
+            int c = Character.codePointAt(input, i);
+            i += Character.charCount(c);
+            boolean alive;
+            long active;
+            if (engine == SET_ENGINE)
+            {
+                alive = setMatcher.step(c);
+                active = setMatcher.getActiveStateCount();
+            }
+            else if (engine == BITSET_ENGINE)
+            {
+                alive = bitSet.step(c);
+                active = bitSet.getActiveStateCount();
+            }
+            else if (engine == LAZY_DFA_ENGINE)
+            {
+                alive = lazy.step(c);
+                active = lazy.getActiveStateCount();
+            }
+            else
+            {
+                dfaState = dfa.next(dfaState, dfa.getAlphabet().classOf(c));
+                alive = dfaState != DFA.DEAD_STATE;
+                active = 1;
+            }
+            done = workOf(setMatcher, bitSet, lazy);
+            if (!alive || !meter.step(Math.max(1, done - work), active))
+            {
+                return false;
+            }
+            work = done;
+        }
+
+        if (engine == SET_ENGINE)
+        {
+            return setMatcher.isAccepting();
+        }
+        else if (engine == BITSET_ENGINE)
+        {
+            return bitSet.isAccepting();
+        }
+        else if (engine == LAZY_DFA_ENGINE)
+        {
+            return lazy.isAccepting();
+        }
+        return dfa.isAcceptState(dfaState);
+    }
+
+    /**
+     * Returns the work done so far by whichever of the matchers is being
+     * run, or 0 for the DFA engine, which does one lookup per code point.
+     *
+     * NFAMatcher setMatcher, BitSetMatcher bitSet, LazyDFA lazy: the
+     *      matchers, all null but the one being run
+     */
+    private static long workOf(NFAMatcher setMatcher, BitSetMatcher bitSet, LazyDFA lazy)
+    {
+        if (setMatcher != null)
+        {
+            return setMatcher.getWork();
+        }
+        else if (bitSet != null)
+        {
+            return bitSet.getWork();
+        }
+        else if (lazy != null)
+        {
+            return lazy.getWork();
+        }
+        return 0;
+    }
+
+    /**
+     * Runs the recursive run() method from the start state. The state index,
+     * the visited positions and the list of characters are kept from one run
+     * to the next until the NFA changes, so a batch makes them once instead
+     * of once per input.
+     *
+     * CharSequence inputString: the string to run the NFA on
+     * BudgetMeter meter: counts the work done, or null for no limits
+     *
+     * Returns true if the NFA accepts the input string and false if it
+     * doesn't or the budget was gone over.
+     */
+    private boolean runBacktracking(CharSequence inputString, BudgetMeter meter)
+    {
+        long current = version;
+        if (backtrackIndex == null || backtrackVersion != current)
+        {
+            backtrackIndex = indexStates();
+            backtrackVisited = new BitSet[states.size()];
+            backtrackVersion = current;
+            if (meter != null && !meter.step(states.size(), 0))
+            {
+                return false;
+            }
+        }
+        else
+        {
+            for (BitSet positions : backtrackVisited)
+            {
+                if (positions != null)
+                {
+                    positions.clear();
+                }
+            }
+        }
+        backtrackInput.clear();
+        addCharacters(inputString, backtrackInput);
+        return run(startState, backtrackInput, 0, backtrackIndex, backtrackVisited, meter);
+    }
+
+    /**
+     * Splits a string into single character strings for the recursive run()
+     * method, keeping surrogate pairs together.
+     *
+     * CharSequence inputString: the string to split
+     * ArrayList<String> inputList: the list to add the characters to
+     */
+    private static void addCharacters(CharSequence inputString, ArrayList<String> inputList)
+    {
+        int length = inputString.length();
+        int i = 0;
+        while (i < length)
+        {
+            int c = Character.codePointAt(inputString, i);
+            int next = i + Character.charCount(c);
+            if (c < LATIN_1_STRINGS.length)
+            {
+                inputList.add(LATIN_1_STRINGS[c]);
+            }
+            else
+            {
+                inputList.add(inputString.subSequence(i, next).toString());
+            }
+            i = next;
+        }
+    }
+
+    /**
+     * Runs the NFA on every input of a batch using the set simulation engine.
+     *
+     * Iterable<? extends CharSequence> inputs: the inputs to run the NFA on
+     *
+     * Returns whether each input was accepted, in order, and the totals.
+     */
+    public BatchResult runBatch(Iterable<? extends CharSequence> inputs)
+    {
+        return runBatch(inputs.iterator(), SET_ENGINE);
+    }
+
+    /**
+     * Runs the NFA on every input of a batch with the given engine. The
+     * snapshot and whatever the engine builds from it are made once, before
+     * the first input, and every input after that reuses the same matcher,
+     * so the set, bitset and DFA engines allocate nothing per input. The
+     * stack engine's work stack and visited positions, and the backtracking
+     * engine's state index and visited positions, are reused the same way.
+     * A Stream of inputs can be run by passing its iterator().
+     *
+     * Iterator<? extends CharSequence> inputs: the inputs to run the NFA on
+     * int engine: the engine to run with, as for run(CharSequence, int)
+     *
+     * Returns whether each input was accepted, in order, and the totals.
+     */
+    public BatchResult runBatch(Iterator<? extends CharSequence> inputs, int engine)
+    {
+        prepare(engine);
+        BatchResult result = new BatchResult();
+        while (inputs.hasNext())
+        {
+            result.add(run(inputs.next(), engine));
+        }
+        return result;
+    }
+
+    /**
+     * Runs the NFA on every line of a UTF-8 text file with the given engine.
+     * Lines end at "\n", "\r\n" or "\r", and the line terminators are not
+     * part of the input. Each line is read into the same buffer, so no
+     * string is made per line.
+     *
+     * File file: the file of inputs, one per line
+     * int engine: the engine to run with, as for run(CharSequence, int)
+     *
+     * Returns whether each line was accepted, in order, and the totals.
+     * Throws IOException if the file can't be read.
+     */
+    public BatchResult runBatch(File file, int engine) throws IOException
+    {
+        prepare(engine);
+        BatchResult result = new BatchResult();
+        Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+        try
+        {
+            char[] buffer = new char[8192];
+            StringBuilder line = new StringBuilder();
+            boolean afterReturn = false;
+            int read;
+            while ((read = reader.read(buffer)) > 0)
+            {
+                for (int i = 0; i < read; i++)
+                {
+                    char c = buffer[i];
+                    if (c == '\n' && afterReturn)
+                    {
+                        // the second half of a "\r\n" line ending
+                        afterReturn = false;
+                    }
+                    else if (c == '\n' || c == '\r')
+                    {
+                        result.add(run(line, engine));
+                        line.setLength(0);
+                        afterReturn = c == '\r';
+                    }
+                    else
+                    {
+                        line.append(c);
+                        afterReturn = false;
+                    }
+                }
+            }
+            if (line.length() > 0)
+            {
+                result.add(run(line, engine));
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return result;
+    }
+
+    /**
+     * Runs the NFA on every input of a batch with the given engine, split
+     * across the threads of the common fork/join pool.
+     *
+     * List<? extends CharSequence> inputs: the inputs to run the NFA on
+     * int engine: the engine to run with, as for run(CharSequence, int)
+     *
+     * Returns whether each input was accepted, in order, and the totals.
+     */
+    public BatchResult runParallelBatch(List<? extends CharSequence> inputs, int engine)
+    {
+        return runParallelBatch(inputs, engine, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Runs the NFA on every input of a batch with the given engine, split
+     * across the threads of a fork/join pool. The snapshot, and the DFA,
+     * alphabet or bitset masks, are built once on the calling thread and then
+     * shared by every worker, which only reads them; each worker thread runs
+     * its share of the inputs with one matcher of its own. The NFA's states
+     * and transitions are never touched by the workers, but they shouldn't be
+     * changed until the batch has finished.
+     *
+     * BACKTRACK_ENGINE walks the State and Transition objects themselves, so
+     * it can't be run in parallel.
+     *
+     * List<? extends CharSequence> inputs: the inputs to run the NFA on
+     * int engine: the engine to run with, as for run(CharSequence, int)
+     * ForkJoinPool pool: the pool to run the batch in
+     *
+     * Returns whether each input was accepted, in order, and the totals.
+     */
+    public BatchResult runParallelBatch(List<? extends CharSequence> inputs, int engine, ForkJoinPool pool)
+    {
+        if (engine == BACKTRACK_ENGINE)
+        {
+            throw new IllegalArgumentException("The backtracking engine can't be run in parallel");
+        }
+        prepare(engine);
+        if (!(inputs instanceof RandomAccess))
+        {
+            inputs = new ArrayList<CharSequence>(inputs);
+        }
+
+        BitSetMatcher bitSet = null;
+        Alphabet alphabet = null;
+        if (engine == BITSET_ENGINE)
+        {
+            bitSet = getBitSetMatcher();
+        }
+        else if (engine == LAZY_DFA_ENGINE)
+        {
+            alphabet = getLazyDFA().getAlphabet();
+        }
+        int batchSize = Math.max(ParallelBatch.MIN_BATCH_SIZE,
+            inputs.size() / (pool.getParallelism() * ParallelBatch.BATCHES_PER_THREAD));
+        return pool.invoke(new ParallelBatch(inputs, batchSize, engine,
+            getSnapshot(), dfa, bitSet, alphabet, lazyDFAMemoryBudget));
+    }
+
+    /**
+     * Runs the compiled DFA over one large input, split into chunks that are
+     * run on the threads of the common fork/join pool and then stitched
+     * together.
+     *
+     * CharSequence input: the input to run the NFA on
+     *
+     * Returns true if the NFA accepts the input and false otherwise. Throws
+     * IllegalStateException if the NFA hasn't been compiled since it last
+     * changed.
+     */
+    public boolean runParallel(CharSequence input)
+    {
+        if (dfa == null)
+        {
+            throw new IllegalStateException("The NFA has not been compiled since it last changed");
+        }
+        return ParallelScan.matches(dfa, input, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Builds everything the given engine needs before a batch is run, so
+     * that the first input isn't slower than the rest and a batch that can't
+     * be run fails before reading any input.
+     *
+     * int engine: the engine the batch will be run with
+     */
+    private void prepare(int engine)
+    {
+        if (engine == SET_ENGINE)
+        {
+            getMatcher();
+        }
+        else if (engine == STACK_ENGINE)
+        {
+            getStackMatcher();
+        }
+        else if (engine == DFA_ENGINE)
+        {
+            if (dfa == null)
+            {
+                throw new IllegalStateException("The NFA has not been compiled since it last changed");
+            }
+        }
+        else if (engine == LAZY_DFA_ENGINE)
+        {
+            getLazyDFA();
+        }
+        else if (engine == BITSET_ENGINE)
+        {
+            getBitSetMatcher();
+        }
+        else if (engine != BACKTRACK_ENGINE)
+        {
+            throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+    }
+
+    /**
+     * Runs the NFA with the set simulation over the code points of the input
+     * from the given offset to the end. Reuses the NFA's matcher, so once the
+     * snapshot is built a run allocates nothing.
+     *
+     * CharSequence input: the input to run the NFA on
+     * int offset: the index of the first char to read
+     *
+     * Returns true if the NFA accepts the input and false otherwise.
+     */
+    public boolean accepts(CharSequence input, int offset)
+    {
+        return getMatcher().matches(input, offset);
+    }
+
+    /**
+     * Runs the NFA with the set simulation over part of an array of code
+     * points. Reuses the NFA's matcher, so once the snapshot is built a run
+     * allocates nothing.
+     *
+     * int[] codePoints: the input to run the NFA on
+     * int offset: the index of the first code point to read
+     * int length: the number of code points to read
+     *
+     * Returns true if the NFA accepts the input and false otherwise.
+     */
+    public boolean accepts(int[] codePoints, int offset, int length)
+    {
+        return getMatcher().matches(codePoints, offset, length);
+    }
+
+    /**
+     * Splits a string into its code points, reading surrogate pairs as a
+     * single code point.
+     *
+     * CharSequence input: the string to split
+     *
+     * Returns an array with one code point per character.
+     */
+    public static int[] toCodePoints(CharSequence input)
+    {
+        int length = input.length();
+        int[] codePoints = new int[Character.codePointCount(input, 0, length)];
+        int i = 0;
+        for (int n = 0; n < codePoints.length; n++)
+        {
+            codePoints[n] = Character.codePointAt(input, i);
+            i += Character.charCount(codePoints[n]);
+        }
+        return codePoints;
     }
 
     /**
      * Runs the NFA. Recursively tries paths through the NFA until an accepting
      * path is found. If one is found, returns true and otherwise returns false.
      *
+     * Every (state, input position) pair the search reaches is remembered, and
+     * a pair that has been reached before is not explored again: either it is
+     * still being explored further up the recursion or it has already failed.
+     * This keeps the search to at most one visit per state per position,
+     * instead of trying exponentially many paths, and stops it from looping
+     * around epsilon cycles.
+     *
+     * An epsilon rule never reads a character of the input, not even a
+     * literal epsilon (U+025B), so an input with one in it is rejected, as it
+     * is by every other engine. An epsilon loop from a state to itself is
+     * ignored.
+     *
      * State state: the current state in the recursion
      * ArrayList<String> inputList: the current list of characters in the input
      *
@@ -127,9 +989,64 @@ public class NFA
      */
     public boolean run(State state, ArrayList<String> inputList)
     {
+        return run(state, inputList, 0, indexStates(), new BitSet[states.size()], null);
+    }
+
+    /**
+     * Returns a map from each state to its index in the state list, the first
+     * index if it is in the list twice.
+     */
+    private IdentityHashMap<State, Integer> indexStates()
+    {
+        IdentityHashMap<State, Integer> index = new IdentityHashMap<State, Integer>();
+        for (int i = states.size() - 1; i >= 0; i--)
+        {
+            index.put(states.get(i), i);
+        }
+        return index;
+    }
+
+    /**
+     * Does the work of run(State, ArrayList<String>) from a position in the
+     * input, without copying the rest of the input for each step.
+     *
+     * State state: the current state in the recursion
+     * ArrayList<String> inputList: the whole list of characters in the input
+     * int position: the index of the next character to consume
+     * IdentityHashMap<State, Integer> index: the index of each state
+     * BitSet[] visited: the positions each state has been reached at, by
+     *      state index, made as needed
+     * BudgetMeter meter: counts the work done, or null for no limits
+     *
+     * Returns true if the rest of the input is accepted from the state and
+     * false if it isn't or the budget was gone over.
+     */
+    private boolean run(State state, ArrayList<String> inputList, int position,
+        IdentityHashMap<State, Integer> index, BitSet[] visited, BudgetMeter meter)
+    {
+        if (meter != null && !meter.step(1))
+        {
+            return false;
+        }
+        Integer stateIndex = index.get(state);
+        if (stateIndex != null)
+        {
+            BitSet positions = visited[stateIndex];
+            if (positions == null)
+            {
+                positions = new BitSet(inputList.size() + 1);
+                visited[stateIndex] = positions;
+            }
+            if (positions.get(position))
+            {
+                return false;
+            }
+            positions.set(position);
+        }
+
         boolean branchAccepts;
         // see if there is an epsilon from here before going to base case
-        if (inputList.size() == 0)
+        if (position == inputList.size())
         {
             if (state.isAcceptState())
             {
@@ -143,7 +1060,7 @@ public class NFA
                     if (r.getInputChar().equals("\u025B") && t.getFromState() != t.getToState())
                     {
                         // recurse, consuming no input for the epsilon transition
-                        branchAccepts = run(t.getToState(), inputList);
+                        branchAccepts = run(t.getToState(), inputList, position, index, visited, meter);
                         if (branchAccepts)
                         {
                             return true;
@@ -162,19 +1079,18 @@ public class NFA
                     if (r.getInputChar().equals("\u025B") && t.getFromState() != t.getToState())
                     {
                         // recurse, consuming no input for the epsilon transition
-                        branchAccepts = run(t.getToState(), inputList);
+                        branchAccepts = run(t.getToState(), inputList, position, index, visited, meter);
                         if (branchAccepts)
                         {
                             return true;
                         }
                     }
-                    else if (r.getInputChar().equals(inputList.get(0)))
+                    // an epsilon self loop goes nowhere, and never reads a literal U+025B
+                    else if (!r.getInputChar().equals("\u025B")
+                        && r.getInputChar().equals(inputList.get(position)))
                     {
-                        // recurse, consuming the first character of the input list
-                        ArrayList<String> nextInput = new ArrayList<String>();
-                        nextInput.addAll(inputList);
-                        nextInput.remove(0);
-                        branchAccepts = run(t.getToState(), nextInput);
+                        // recurse, consuming the next character of the input list
+                        branchAccepts = run(t.getToState(), inputList, position + 1, index, visited, meter);
                         if (branchAccepts)
                         {
                             return true;
@@ -209,47 +1125,54 @@ public class NFA
             // initialize output stream
             File file = new File(filename);
             FileOutputStream fop = new FileOutputStream(file);
-            OutputStreamWriter out = new OutputStreamWriter(fop, "utf-8");
+            Writer out = new BufferedWriter(new OutputStreamWriter(fop, StandardCharsets.UTF_8), 1 << 16);
 
             // write start state
-            int x = startState.getXPos();
-            int y = startState.getYPos();
-            boolean acceptState = startState.isAcceptState();
+            out.write("startstate " + startState.getXPos() + " " + startState.getYPos() + " "
+                + startState.isAcceptState() + "\n");
 
-            String line = "startstate " + x + " " + y + " " + acceptState + "\n";
-
-            out.write(line);
-            
             // write the rest of the states
             for (int i = 1; i < states.size(); i++)
             {
-                x = states.get(i).getXPos();
-                y = states.get(i).getYPos();
-                acceptState = states.get(i).isAcceptState();
-
-                line = "state " + x + " " + y + " " + acceptState + "\n";
-
-                out.write(line);
+                State s = states.get(i);
+                out.write("state " + s.getXPos() + " " + s.getYPos() + " " + s.isAcceptState() + "\n");
             }
 
             // write state/transition separator
-            line = "#\n";
-
-            out.write(line);
+            out.write("#\n");
 
-            // write transitions 
+            // write transitions, numbering the states once rather than
+            // searching the state list for both ends of every transition
+            IdentityHashMap<State, Integer> index = indexStates();
+            StringBuilder line = new StringBuilder();
             for (State s : states)
             {
                 for (Transition t : s.getTransitionsOut())
                 {
-                    int from = states.indexOf(t.getFromState());
-                    int to = states.indexOf(t.getToState());
-                    boolean tangent = t.isTangent();
-                    String ruleString = t.buildStringFromRules().replaceAll(" ", "");
+                    line.setLength(0);
+                    line.append("transition ").append(indexOf(index, t.getFromState()));
+                    line.append(' ').append(indexOf(index, t.getToState()));
+                    line.append(' ').append(t.isTangent()).append(' ');
 
-                    line = "transition " + from + " " + to + " " + tangent + " " + ruleString + "\n";
-
-                    out.write(line);
+                    // the rules as buildStringFromRules writes them, without spaces
+                    ArrayList<Rule> rules = t.getRules();
+                    for (int r = 0; r < rules.size(); r++)
+                    {
+                        if (r > 0)
+                        {
+                            line.append(',');
+                        }
+                        String inputChar = rules.get(r).getInputChar();
+                        for (int i = 0; i < inputChar.length(); i++)
+                        {
+                            if (inputChar.charAt(i) != ' ')
+                            {
+                                line.append(inputChar.charAt(i));
+                            }
+                        }
+                    }
+                    line.append('\n');
+                    out.append(line);
                 }
             }
 
@@ -266,173 +1189,75 @@ public class NFA
     }
 
     /**
-     * Loads a previously saved NFA. Returns false if an NFA can't be loaded
-     * from the specified filename. Attempts to decode from UTF-8.
+     * Returns the index of a state in the state list, or -1 if it isn't in
+     * the list, as states.indexOf would.
      *
-     * Returns true if the file is loaded successfully and false otherwise.
+     * IdentityHashMap<State, Integer> index: the map made by indexStates()
+     * State s: the state to look up
      */
-    public boolean load(String filename)
+    private static int indexOf(IdentityHashMap<State, Integer> index, State s)
     {
-        Scanner scanner;
-        File file = new File(filename);
-
-        try
-        {
-            scanner = new Scanner(file, "utf-8");
-        }
-        catch (IOException e)
-        {   
-            // should be caught in LMMenubar, though it might be possible to
-            // receive a permission error
-            System.err.println("Something failed while loading: " + e.getMessage());
-            return false;
-        }
-
-        // construct start state
-        if (scanner.hasNextLine())
-        {
-            String line = scanner.nextLine();
-            String[] args = line.split(" ");
-
-            if (args.length != 4)
-            {
-                JOptionPane.showMessageDialog((Component) null,
-                        "Cannot open specified file due to invalid file format.\nLength of arguments expected to be 4, found " + args.length,
-                        "Invalid file format",
-                        JOptionPane.ERROR_MESSAGE);
-                return false;
-            }
+        Integer i = index.get(s);
+        return i == null ? -1 : i;
+    }
 
-            if (!args[0].equals("startstate"))
-            {
-                JOptionPane.showMessageDialog((Component) null,
-                        "Cannot open specified file due to invalid file format.\nExpected 'startstate', found " + args[0],
-                        "Invalid file format",
-                        JOptionPane.ERROR_MESSAGE);
-                return false;
-            }
+    /**
+     * Loads a previously saved NFA into this empty NFA, decoding the file
+     * from UTF-8. Nothing is shown to the user; problems are thrown for the
+     * caller to deal with, so different NFAs can be loaded on different
+     * threads at once. The whole file is read with NFAParser before any
+     * state is added, so if the file turns out to be invalid the NFA is left
+     * empty.
+     *
+     * String filename: the name of the file to load
+     *
+     * Throws NFAFormatException, saying where, if the file isn't in the
+     * format save() writes, and IOException if it can't be read.
+     */
+    public void load(String filename) throws IOException
+    {
+        load(NFAParser.read(new File(filename)));
+    }
 
-            int x, y;
-            try
-            {
-                x = Integer.parseInt(args[1]);
-                y = Integer.parseInt(args[2]);
-            }
-            catch (NumberFormatException e)
-            {
-                JOptionPane.showMessageDialog((Component) null,
-                        "Cannot open specified file due to invalid file format.\nUnable to parse string as integer.",
-                        "Invalid file format",
-                        JOptionPane.ERROR_MESSAGE);
-                return false;
-            }
-            boolean acceptState = Boolean.parseBoolean(args[3]);
+    /**
+     * Loads an NFA read by NFAParser into this empty NFA, making the State
+     * and Transition objects the editor works with.
+     *
+     * CompactNFA graph: the NFA to load
+     */
+    public void load(CompactNFA graph)
+    {
+        State[] loaded = new State[graph.getStateCount()];
 
-            StartState start = new StartState(x, y, acceptState);
-            addState(start);
-            startState = start;
-        }
+        // construct start state
+        StartState start = new StartState(graph.getXPos(0), graph.getYPos(0), graph.isAcceptState(0));
+        addState(start);
+        startState = start;
+        loaded[0] = start;
 
         // construct other states
-        while (scanner.hasNextLine())
+        for (int s = 1; s < loaded.length; s++)
         {
-            String line = scanner.nextLine();
-            
-            if (line.equals("#"))
-            {
-                break;
-            }
-
-            String[] args = line.split(" ");
-            
-            if (args.length != 4)
-            {
-                JOptionPane.showMessageDialog((Component) null,
-                        "Cannot open specified file due to invalid file format.\nLength of arguments expected to be 4, found " + args.length,
-                        "Invalid file format",
-                        JOptionPane.ERROR_MESSAGE);
-                return false;
-            }
-
-            if (!args[0].equals("state"))
-            {
-                JOptionPane.showMessageDialog((Component) null,
-                        "Cannot open specified file due to invalid file format.\nExpected 'state', found " + args[0],
-                        "Invalid file format",
-                        JOptionPane.ERROR_MESSAGE);
-                return false;
-            }
-
-            int x, y;
-            try
-            {
-                x = Integer.parseInt(args[1]);
-                y = Integer.parseInt(args[2]);
-            }
-            catch (NumberFormatException e)
-            {
-                JOptionPane.showMessageDialog((Component) null,
-                        "Cannot open specified file due to invalid file format.\nUnable to parse string as integer.",
-                        "Invalid file format",
-                        JOptionPane.ERROR_MESSAGE);
-                return false;
-            }
-            boolean acceptState = Boolean.parseBoolean(args[3]);
-
-            State state = new State(x, y, acceptState);
+            State state = new State(graph.getXPos(s), graph.getYPos(s), graph.isAcceptState(s));
             state.setSelected(false);
             addState(state);
+            loaded[s] = state;
         }
 
         // construct transitions
-        while (scanner.hasNextLine())
+        for (int t = 0; t < graph.getTransitionCount(); t++)
         {
-            String line = scanner.nextLine();
-            String[] args = line.split(" ");
-
-            if (args.length != 4 && args.length != 5)
-            {
-                JOptionPane.showMessageDialog((Component) null,
-                        "Cannot open specified file due to invalid file format.\nLength of arguments expected to be 4 or 5, found " + args.length,
-                        "Invalid file format",
-                        JOptionPane.ERROR_MESSAGE);
-                return false;
-            }
-
-            if (!args[0].equals("transition"))
-            {
-                JOptionPane.showMessageDialog((Component) null,
-                        "Cannot open specified file due to invalid file format.\nExpected 'transition', found " + args[0],
-                        "Invalid file format",
-                        JOptionPane.ERROR_MESSAGE);
-                return false;
-            }
-
-            State from, to;
-            try
-            {
-                from = states.get(Integer.parseInt(args[1]));
-                to = states.get(Integer.parseInt(args[2]));
-            }
-            catch (NumberFormatException e)
-            {
-                JOptionPane.showMessageDialog((Component) null,
-                        "Cannot open specified file due to invalid file format.\nUnable to parse string as integer.",
-                        "Invalid file format",
-                        JOptionPane.ERROR_MESSAGE);
-                return false;
-            }
-
+            State from = loaded[graph.getTransitionFrom(t)];
+            State to = loaded[graph.getTransitionTo(t)];
             Transition transition = new Transition(from, to);
-            if (args.length == 5)
+            if (graph.hasRuleArgument(t))
             {
-                transition.buildRulesFromString(args[4]);
+                transition.buildRulesFromString(graph.getRuleString(t));
             }
-            transition.setTangent(Boolean.parseBoolean(args[3]));
+            transition.setTangent(graph.isTangent(t));
             transition.setSelected(false);
             from.addTransitionOut(transition);
             to.addTransitionIn(transition);
         }
-        return true;
     }
-}
\ No newline at end of file
+}
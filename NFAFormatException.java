@@ -0,0 +1,75 @@
+import java.io.IOException;
+
+/**
+ * Thrown when a file being loaded as an NFA isn't in the format NFA.save
+ * writes. Says where in the file the problem is, so whoever is loading the
+ * file can decide how to show it: the GUI puts it in a dialog, and the
+ * command-line runner prints it.
+ *
+ * int line: the line the problem is on, counting from 1
+ * int column: the column the problem starts at, counting chars from 1
+ * String reason: what is wrong
+ */
+public class NFAFormatException extends IOException
+{
+    private int line;
+    private int column;
+    private String reason;
+
+    /**
+     * Constructor for NFAFormatException.
+     *
+     * int line: the line the problem is on, counting from 1
+     * int column: the column the problem starts at, counting chars from 1
+     * String reason: what is wrong
+     */
+    public NFAFormatException(int line, int column, String reason)
+    {
+        super("Invalid file format on line " + line + ", column " + column + ": " + reason);
+        this.line = line;
+        this.column = column;
+        this.reason = reason;
+    }
+
+    /**
+     * Returns the line the problem is on, counting from 1.
+     */
+    public int getLine()
+    {
+        return line;
+    }
+
+    /**
+     * Returns the column the problem starts at, counting chars from 1.
+     */
+    public int getColumn()
+    {
+        return column;
+    }
+
+    /**
+     * Returns what is wrong, without saying where.
+     */
+    public String getReason()
+    {
+        return reason;
+    }
+
+    /**
+     * Returns the column an argument of a line split on spaces starts at, or
+     * the column just past the end of the line for an argument that is
+     * missing.
+     *
+     * String[] args: the arguments of the line
+     * int index: the index of the argument
+     */
+    public static int columnOf(String[] args, int index)
+    {
+        int column = 1;
+        for (int i = 0; i < index && i < args.length; i++)
+        {
+            column += args[i].length() + 1;
+        }
+        return index < args.length ? column : column - 1;
+    }
+}
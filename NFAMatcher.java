@@ -0,0 +1,258 @@
+/**
+ * Runs an NFA snapshot by stepping the set of every state it could be in
+ * through the input one code point at a time (Thompson's simulation). Each
+ * state is entered at most once per code point, so a run costs at most the
+ * length of the input times the number of edges no matter how
+ * nondeterministic the NFA is.
+ *
+ * All of the matcher's state sets are allocated once in the constructor and
+ * reused for every run, so running allocates nothing. A matcher is not safe
+ * to use from more than one thread at a time.
+ *
+ * NFASnapshot graph: the snapshot being run
+ * int[] current, next: the active state set and the set being built for the
+ *      next code point
+ * int currentSize: the number of states in current
+ * int[] mark: mark[s] == stamp when s is already in the set being built
+ * int stamp: the mark value for the set being built
+ * long work: the states and edges gone through since the matcher was built
+ */
+public class NFAMatcher
+{
+    private NFASnapshot graph;
+    private int[] current;
+    private int[] next;
+    private int currentSize;
+    private int[] mark;
+    private int stamp;
+    private long work;
+
+    /**
+     * Constructor for NFAMatcher. Allocates the state sets for the given
+     * snapshot and resets the matcher to the start state.
+     *
+     * NFASnapshot graph: the snapshot to run
+     */
+    public NFAMatcher(NFASnapshot graph)
+    {
+        this.graph = graph;
+        int stateCount = graph.getStateCount();
+        current = new int[stateCount];
+        next = new int[stateCount];
+        mark = new int[stateCount];
+        reset();
+    }
+
+    /**
+     * Returns the snapshot the matcher runs.
+     */
+    public NFASnapshot getSnapshot()
+    {
+        return graph;
+    }
+
+    /**
+     * Resets the matcher so that the active states are the epsilon closure of
+     * the start state.
+     */
+    public void reset()
+    {
+        nextStamp();
+        currentSize = addEpsilonClosure(graph.getStartState(), current, 0);
+    }
+
+    /**
+     * Makes the given states the active states, for carrying on a run that
+     * was started by another engine.
+     *
+     * int[] states: the indexes of the states to make active, which must
+     *      already be closed under epsilon edges
+     * int count: the number of entries of states to use
+     */
+    public void setActiveStates(int[] states, int count)
+    {
+        nextStamp();
+        currentSize = 0;
+        for (int i = 0; i < count; i++)
+        {
+            if (mark[states[i]] != stamp)
+            {
+                mark[states[i]] = stamp;
+                current[currentSize++] = states[i];
+            }
+        }
+    }
+
+    /**
+     * Moves every active state along the edges that consume the given code
+     * point, then follows epsilon edges from the states reached.
+     *
+     * int codePoint: the code point to consume
+     *
+     * Returns false if no state is active afterwards, so nothing can accept.
+     */
+    public boolean step(int codePoint)
+    {
+        nextStamp();
+        int nextSize = 0;
+        for (int i = 0; i < currentSize; i++)
+        {
+            int s = current[i];
+            int edgeEnd = graph.getEdgeStart(s + 1);
+            work += 1 + edgeEnd - graph.getEdgeStart(s);
+            for (int e = graph.getEdgeStart(s); e < edgeEnd; e++)
+            {
+                if (graph.getEdgeChar(e) == codePoint)
+                {
+                    nextSize = addEpsilonClosure(graph.getEdgeTarget(e), next, nextSize);
+                }
+            }
+        }
+
+        int[] swap = current;
+        current = next;
+        next = swap;
+        currentSize = nextSize;
+        return currentSize > 0;
+    }
+
+    /**
+     * Returns true if any active state is an accept state.
+     */
+    public boolean isAccepting()
+    {
+        for (int i = 0; i < currentSize; i++)
+        {
+            if (graph.isAcceptState(current[i]))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if no state is active, so no more input can be accepted.
+     */
+    public boolean isDead()
+    {
+        return currentSize == 0;
+    }
+
+    /**
+     * Returns the number of active states.
+     */
+    public int getActiveStateCount()
+    {
+        return currentSize;
+    }
+
+    /**
+     * Returns the number of states and edges gone through by every step and
+     * reset since the matcher was built, for charging to a run's budget.
+     */
+    public long getWork()
+    {
+        return work;
+    }
+
+    /**
+     * Runs the NFA from the start state over the code points of the input
+     * from the given offset to the end. Surrogate pairs are read as a single
+     * code point.
+     *
+     * CharSequence input: the input to run the NFA on
+     * int offset: the index of the first char to read
+     *
+     * Returns true if the NFA accepts the input and false otherwise.
+     */
+    public boolean matches(CharSequence input, int offset)
+    {
+        reset();
+        int length = input.length();
+        int i = offset;
+        while (i < length)
+        {
+            int c = input.charAt(i++);
+            if (Character.isHighSurrogate((char) c) && i < length
+                && Character.isLowSurrogate(input.charAt(i)))
+            {
+                c = Character.toCodePoint((char) c, input.charAt(i++));
+            }
+            if (!step(c))
+            {
+                return false;
+            }
+        }
+        return isAccepting();
+    }
+
+    /**
+     * Runs the NFA from the start state over part of an array of code points.
+     *
+     * int[] codePoints: the input to run the NFA on
+     * int offset: the index of the first code point to read
+     * int length: the number of code points to read
+     *
+     * Returns true if the NFA accepts the input and false otherwise.
+     */
+    public boolean matches(int[] codePoints, int offset, int length)
+    {
+        reset();
+        for (int i = offset; i < offset + length; i++)
+        {
+            if (!step(codePoints[i]))
+            {
+                return false;
+            }
+        }
+        return isAccepting();
+    }
+
+    /**
+     * Adds the precomputed epsilon closure of a state to a state set, skipping
+     * states that are already marked as being in the set.
+     *
+     * int state: the index of the state to add
+     * int[] stateSet: the set of states being built
+     * int size: the number of states already in stateSet
+     *
+     * Returns the new number of states in stateSet.
+     */
+    private int addEpsilonClosure(int state, int[] stateSet, int size)
+    {
+        if (mark[state] == stamp)
+        {
+            return size;
+        }
+        int[] closure = graph.getEpsilonClosure(state);
+        work += closure.length;
+        for (int i = 0; i < closure.length; i++)
+        {
+            int q = closure[i];
+            if (mark[q] != stamp)
+            {
+                mark[q] = stamp;
+                stateSet[size++] = q;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Moves on to a new mark value, clearing the marks in the rare case that
+     * the stamp wraps around.
+     */
+    private void nextStamp()
+    {
+        if (stamp == Integer.MAX_VALUE)
+        {
+            for (int s = 0; s < mark.length; s++)
+            {
+                mark[s] = 0;
+            }
+            stamp = 0;
+        }
+        stamp++;
+    }
+}
@@ -0,0 +1,541 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a file saved by NFA.save into a CompactNFA, without making any State
+ * or Transition objects. Nothing it does touches Swing or AWT, so it can be
+ * used by programs that run without a display. NFA.load uses it too, and
+ * only makes the objects once the whole file has been read.
+ *
+ * The file is read in one pass over its bytes, a buffer at a time. Lines
+ * are split on spaces and their numbers parsed straight from the buffer, so
+ * a line costs no Strings unless it has rules outside ASCII. A line that
+ * isn't laid out quite the way save() writes it (doubled spaces, a '+' sign,
+ * digits outside ASCII, an error) is decoded and read again with
+ * String.split, so such lines mean exactly what they always have.
+ * LMParserCheck reads generated files both ways to check that the two
+ * agree.
+ *
+ * Errors in the file are reported with an NFAFormatException saying where
+ * the problem is.
+ *
+ * static final int BUFFER_SIZE: the number of bytes read at a time
+ * static final long NOT_SIMPLE: returned by intAt for an argument that isn't
+ *      a plain number
+ * InputStream in: the saved NFA
+ * boolean fastPath: false to read every line with String.split
+ * byte[] buffer: the bytes read but not yet used, from position to limit
+ * int position, limit: the range of buffer holding unused bytes
+ * boolean skipLineFeed: true if the last line ended with '\r', so a '\n'
+ *      straight after it is part of the same line break
+ * int lineStart, lineEnd: the range of buffer holding the current line
+ * int lineNumber: the number of the current line, counting from 1
+ * int[] argStart, argEnd: the range of buffer holding each argument of the
+ *      current line
+ * int argCount: the number of arguments of the current line
+ * CompactNFA graph: the NFA read so far
+ */
+public class NFAParser
+{
+    public static final int BUFFER_SIZE = 1 << 16;
+
+    private static final long NOT_SIMPLE = Long.MIN_VALUE;
+    private static final byte[] STARTSTATE = "startstate".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] STATE = "state".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRANSITION = "transition".getBytes(StandardCharsets.US_ASCII);
+
+    private InputStream in;
+    private boolean fastPath;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private boolean skipLineFeed;
+    private int lineStart;
+    private int lineEnd;
+    private int lineNumber;
+    private int[] argStart = new int[5];
+    private int[] argEnd = new int[5];
+    private int argCount;
+    private CompactNFA graph = new CompactNFA();
+
+    /**
+     * Constructor for NFAParser.
+     *
+     * InputStream in: the saved NFA
+     * boolean fastPath: false to read every line with String.split
+     */
+    private NFAParser(InputStream in, boolean fastPath)
+    {
+        this.in = in;
+        this.fastPath = fastPath;
+    }
+
+    /**
+     * Reads a saved NFA from a file straight into its snapshot.
+     *
+     * File file: the file to read
+     *
+     * Returns the snapshot of the saved NFA, the same one NFA.getSnapshot()
+     * would build after NFA.load had read the file. Throws
+     * NFAFormatException if the file isn't a saved NFA and IOException if it
+     * can't be read.
+     */
+    public static NFASnapshot parse(File file) throws IOException
+    {
+        return read(file).toSnapshot();
+    }
+
+    /**
+     * Reads a saved NFA from a file.
+     *
+     * File file: the file to read
+     *
+     * Returns the saved NFA. Throws NFAFormatException if the file isn't a
+     * saved NFA and IOException if it can't be read.
+     */
+    public static CompactNFA read(File file) throws IOException
+    {
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            return read(in);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads a saved NFA from a stream of UTF-8. The stream is read with its
+     * own buffer, so it needn't be a BufferedInputStream, and is not closed.
+     *
+     * InputStream in: the saved NFA
+     *
+     * Returns the saved NFA. Throws NFAFormatException if the input isn't a
+     * saved NFA and IOException if it can't be read.
+     */
+    public static CompactNFA read(InputStream in) throws IOException
+    {
+        return read(in, true);
+    }
+
+    /**
+     * Reads a saved NFA from a stream of UTF-8, reading lines straight from
+     * the buffer only if told to. Reading with and without the fast path
+     * should always give the same NFA or the same error.
+     *
+     * InputStream in: the saved NFA
+     * boolean fastPath: false to read every line with String.split
+     *
+     * Returns the saved NFA. Throws NFAFormatException if the input isn't a
+     * saved NFA and IOException if it can't be read.
+     */
+    static CompactNFA read(InputStream in, boolean fastPath) throws IOException
+    {
+        return new NFAParser(in, fastPath).read();
+    }
+
+    /**
+     * Reads the states and then the transitions of a saved NFA.
+     *
+     * Returns the saved NFA.
+     */
+    private CompactNFA read() throws IOException
+    {
+        // states, up to the separator
+        while (nextLine())
+        {
+            if (graph.getStateCount() > 0 && lineEnd - lineStart == 1 && buffer[lineStart] == '#')
+            {
+                break;
+            }
+            boolean first = graph.getStateCount() == 0;
+            if (!fastPath || !readState(first ? STARTSTATE : STATE))
+            {
+                String[] args = lineString().split(" ");
+                checkArgs(args, first ? "startstate" : "state", 4, 4, lineNumber);
+                int x = parseInt(args, 1, lineNumber);
+                int y = parseInt(args, 2, lineNumber);
+                graph.addState(x, y, Boolean.parseBoolean(args[3]));
+            }
+        }
+        if (graph.getStateCount() == 0)
+        {
+            throw new NFAFormatException(lineNumber + 1, 1, "Expected 'startstate', found the end of the file");
+        }
+
+        // transitions, to the end of the file
+        while (nextLine())
+        {
+            if (!fastPath || !readTransition())
+            {
+                String[] args = lineString().split(" ");
+                checkArgs(args, "transition", 4, 5, lineNumber);
+                int from = stateAt(args, 1, graph.getStateCount(), lineNumber);
+                int to = stateAt(args, 2, graph.getStateCount(), lineNumber);
+                graph.addTransition(from, to, Boolean.parseBoolean(args[3]), args.length == 5);
+                if (args.length == 5)
+                {
+                    addRules(args[4]);
+                }
+            }
+        }
+
+        graph.trimToSize();
+        return graph;
+    }
+
+    /**
+     * Reads the current line as a state straight from the buffer, if it is
+     * laid out the way save() writes it.
+     *
+     * byte[] keyword: the word the line should start with
+     *
+     * Returns true if the state was read and false if the line has to be
+     * read the slow way.
+     */
+    private boolean readState(byte[] keyword)
+    {
+        if (!splitLine() || argCount != 4 || !argIs(0, keyword))
+        {
+            return false;
+        }
+        long x = intAt(1);
+        long y = intAt(2);
+        if (x == NOT_SIMPLE || y == NOT_SIMPLE)
+        {
+            return false;
+        }
+        graph.addState((int) x, (int) y, isTrue(3));
+        return true;
+    }
+
+    /**
+     * Reads the current line as a transition straight from the buffer, if it
+     * is laid out the way save() writes it.
+     *
+     * Returns true if the transition was read and false if the line has to be
+     * read the slow way.
+     */
+    private boolean readTransition()
+    {
+        if (!splitLine() || argCount < 4 || argCount > 5 || !argIs(0, TRANSITION))
+        {
+            return false;
+        }
+        long from = intAt(1);
+        long to = intAt(2);
+        int stateCount = graph.getStateCount();
+        if (from < 0 || from >= stateCount || to < 0 || to >= stateCount)
+        {
+            return false;
+        }
+        graph.addTransition((int) from, (int) to, isTrue(3), argCount == 5);
+        if (argCount == 5)
+        {
+            for (int i = argStart[4]; i < argEnd[4]; i++)
+            {
+                byte b = buffer[i];
+                if (b < 0)
+                {
+                    // the rest isn't ASCII, so decode it
+                    addRules(new String(buffer, i, argEnd[4] - i, StandardCharsets.UTF_8));
+                    break;
+                }
+                if (b != ',')
+                {
+                    graph.addRule(b);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds each rule of a rule string to the last transition read, the way
+     * Transition.buildRulesFromString reads them: commas are dropped, a rule
+     * is one code point, and a rule repeated on the same transition is only
+     * kept once.
+     *
+     * String rules: the rule string of the transition
+     */
+    private void addRules(String rules)
+    {
+        int i = 0;
+        while (i < rules.length())
+        {
+            int c = rules.codePointAt(i);
+            i += Character.charCount(c);
+            if (c != ',')
+            {
+                graph.addRule(c);
+            }
+        }
+    }
+
+    /**
+     * Moves to the next line. A line ends with "\n", "\r" or "\r\n", or at the
+     * end of the input.
+     *
+     * Returns true if there is another line and false at the end of the
+     * input.
+     */
+    private boolean nextLine() throws IOException
+    {
+        if (skipLineFeed)
+        {
+            skipLineFeed = false;
+            if (position == limit && !fill())
+            {
+                return false;
+            }
+            if (buffer[position] == '\n')
+            {
+                position++;
+            }
+        }
+
+        int scanned = 0;
+        while (true)
+        {
+            for (int i = position + scanned; i < limit; i++)
+            {
+                byte b = buffer[i];
+                if (b == '\n' || b == '\r')
+                {
+                    lineStart = position;
+                    lineEnd = i;
+                    position = i + 1;
+                    skipLineFeed = b == '\r';
+                    lineNumber++;
+                    return true;
+                }
+            }
+            scanned = limit - position;
+            if (!fill())
+            {
+                if (position == limit)
+                {
+                    return false;
+                }
+                // the last line has no line break
+                lineStart = position;
+                lineEnd = limit;
+                position = limit;
+                lineNumber++;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Reads more of the input into the buffer, first moving the unused bytes
+     * to the front of the buffer, or making the buffer bigger if they fill it.
+     *
+     * Returns true if more was read and false at the end of the input.
+     */
+    private boolean fill() throws IOException
+    {
+        if (position > 0)
+        {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        else if (limit == buffer.length)
+        {
+            byte[] bigger = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, bigger, 0, limit);
+            buffer = bigger;
+        }
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read < 0)
+        {
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+
+    /**
+     * Returns the current line decoded from UTF-8.
+     */
+    private String lineString()
+    {
+        return new String(buffer, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Splits the current line on single spaces, dropping spaces at the end as
+     * String.split drops empty arguments at the end.
+     *
+     * Returns true if the line was split into at most five arguments, none
+     * of them empty, and false otherwise.
+     */
+    private boolean splitLine()
+    {
+        int end = lineEnd;
+        while (end > lineStart && buffer[end - 1] == ' ')
+        {
+            end--;
+        }
+        argCount = 0;
+        int start = lineStart;
+        for (int i = lineStart; i <= end; i++)
+        {
+            if (i == end || buffer[i] == ' ')
+            {
+                if (i == start || argCount == argStart.length)
+                {
+                    return false;
+                }
+                argStart[argCount] = start;
+                argEnd[argCount] = i;
+                argCount++;
+                start = i + 1;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if an argument of the current line is the given word.
+     *
+     * int arg: the index of the argument
+     * byte[] word: the word in ASCII
+     */
+    private boolean argIs(int arg, byte[] word)
+    {
+        if (argEnd[arg] - argStart[arg] != word.length)
+        {
+            return false;
+        }
+        for (int i = 0; i < word.length; i++)
+        {
+            if (buffer[argStart[arg] + i] != word[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if an argument of the current line is "true" in any case,
+     * as Boolean.parseBoolean reads it.
+     *
+     * int arg: the index of the argument
+     */
+    private boolean isTrue(int arg)
+    {
+        int i = argStart[arg];
+        return argEnd[arg] - i == 4
+            && (buffer[i] | 0x20) == 't' && (buffer[i + 1] | 0x20) == 'r'
+            && (buffer[i + 2] | 0x20) == 'u' && (buffer[i + 3] | 0x20) == 'e';
+    }
+
+    /**
+     * Parses an argument of the current line that is a plain number: ASCII
+     * digits, maybe after a '-', that fit in an int.
+     *
+     * int arg: the index of the argument
+     *
+     * Returns the number, or NOT_SIMPLE if the argument isn't a plain number.
+     */
+    private long intAt(int arg)
+    {
+        int i = argStart[arg];
+        boolean negative = buffer[i] == '-';
+        if (negative)
+        {
+            i++;
+        }
+        if (i == argEnd[arg] || argEnd[arg] - i > 10)
+        {
+            return NOT_SIMPLE;
+        }
+        long value = 0;
+        for (; i < argEnd[arg]; i++)
+        {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9)
+            {
+                return NOT_SIMPLE;
+            }
+            value = value * 10 + digit;
+        }
+        if (negative)
+        {
+            value = -value;
+        }
+        return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? NOT_SIMPLE : value;
+    }
+
+    /**
+     * Checks that a line starts with the right keyword and has the right
+     * number of arguments.
+     *
+     * String[] args: the line split on spaces
+     * String keyword: the word the line should start with
+     * int min, max: the fewest and most arguments the line may have
+     * int lineNumber: the number of the line
+     */
+    private static void checkArgs(String[] args, String keyword, int min, int max, int lineNumber)
+        throws NFAFormatException
+    {
+        if (args.length < min || args.length > max)
+        {
+            String expected = min == max ? "" + min : min + " or " + max;
+            throw new NFAFormatException(lineNumber, NFAFormatException.columnOf(args, Math.min(args.length, max)),
+                "Length of arguments expected to be " + expected + ", found " + args.length);
+        }
+        if (!args[0].equals(keyword))
+        {
+            throw new NFAFormatException(lineNumber, 1, "Expected '" + keyword + "', found " + args[0]);
+        }
+    }
+
+    /**
+     * Parses an integer argument.
+     *
+     * String[] args: the line split on spaces
+     * int index: the index of the argument
+     * int lineNumber: the number of the line
+     */
+    private static int parseInt(String[] args, int index, int lineNumber) throws NFAFormatException
+    {
+        try
+        {
+            return Integer.parseInt(args[index]);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new NFAFormatException(lineNumber, NFAFormatException.columnOf(args, index),
+                "Unable to parse string as integer: " + args[index]);
+        }
+    }
+
+    /**
+     * Parses a state number argument of a transition.
+     *
+     * String[] args: the line split on spaces
+     * int index: the index of the argument
+     * int stateCount: the number of states read
+     * int lineNumber: the number of the line
+     */
+    private static int stateAt(String[] args, int index, int stateCount, int lineNumber)
+        throws NFAFormatException
+    {
+        int i = parseInt(args, index, lineNumber);
+        if (i < 0 || i >= stateCount)
+        {
+            throw new NFAFormatException(lineNumber, NFAFormatException.columnOf(args, index),
+                "No state numbered " + i);
+        }
+        return i;
+    }
+}
@@ -0,0 +1,346 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * An index-based copy of an NFA's states and transitions for running the NFA.
+ * States are numbered by their position in the NFA's state list. The edges
+ * of every state are kept in one set of flat arrays in the order run() would
+ * try them, and the epsilon closure of every state is worked out once when
+ * the snapshot is built. A snapshot never changes once it is built, so any
+ * number of threads can run it at once.
+ *
+ * static final int EPSILON: the edge character used for epsilon edges
+ * long version: the version of the NFA the snapshot was taken of
+ * int stateCount: the number of states in the NFA
+ * int startState: the index of the start state
+ * boolean[] acceptStates: true at the index of each accept state
+ * int[] edgeStart: the edges of state s are edgeStart[s] to edgeStart[s + 1]
+ * int[] edgeChars: the code point each edge consumes, or EPSILON
+ * int[] edgeTargets: the index of the state each edge goes to
+ * int[][] epsilonClosures: for each state, the indexes of every state
+ *      reachable through epsilon edges alone (including the state itself)
+ * long buildWork: the states and edges gone through building the snapshot
+ */
+public class NFASnapshot
+{
+    public static final int EPSILON = -1;
+
+    private final long version;
+    private final int stateCount;
+    private final int startState;
+    private final boolean[] acceptStates;
+    private final int[] edgeStart;
+    private final int[] edgeChars;
+    private final int[] edgeTargets;
+    private final int[][] epsilonClosures;
+    private final long buildWork;
+
+    /**
+     * Constructor for NFASnapshot. Numbers the states of the NFA, copies its
+     * transitions into the edge arrays and builds the epsilon closures.
+     *
+     * NFA nfa: the NFA to take a snapshot of
+     */
+    public NFASnapshot(NFA nfa)
+    {
+        version = nfa.getVersion();
+        ArrayList<State> states = nfa.getStates();
+        stateCount = states.size();
+        acceptStates = new boolean[stateCount];
+
+        HashMap<State, Integer> indexes = new HashMap<State, Integer>();
+        int edgeCount = 0;
+        for (int i = 0; i < stateCount; i++)
+        {
+            State s = states.get(i);
+            indexes.put(s, i);
+            acceptStates[i] = s.isAcceptState();
+            for (Transition t : s.getTransitionsOut())
+            {
+                edgeCount += t.getRules().size();
+            }
+        }
+
+        startState = indexes.get(nfa.getStartState());
+
+        edgeStart = new int[stateCount + 1];
+        int[] chars = new int[edgeCount];
+        int[] targets = new int[edgeCount];
+        int e = 0;
+        for (int i = 0; i < stateCount; i++)
+        {
+            edgeStart[i] = e;
+            for (Transition t : states.get(i).getTransitionsOut())
+            {
+                Integer to = indexes.get(t.getToState());
+                if (to == null)
+                {
+                    continue;
+                }
+                for (Rule r : t.getRules())
+                {
+                    // epsilon is U+025B; epsilon self loops never change anything
+                    if (r.getInputChar().equals("\u025B"))
+                    {
+                        if (to == i)
+                        {
+                            continue;
+                        }
+                        chars[e] = EPSILON;
+                    }
+                    else
+                    {
+                        chars[e] = r.getInputChar().codePointAt(0);
+                    }
+                    targets[e] = to;
+                    e++;
+                }
+            }
+        }
+        edgeStart[stateCount] = e;
+
+        edgeChars = new int[e];
+        edgeTargets = new int[e];
+        System.arraycopy(chars, 0, edgeChars, 0, e);
+        System.arraycopy(targets, 0, edgeTargets, 0, e);
+
+        epsilonClosures = new int[stateCount][];
+        buildWork = stateCount + edgeCount + buildEpsilonClosures();
+    }
+
+    /**
+     * Alternate constructor for NFASnapshot, for snapshots worked out from
+     * other snapshots or read straight from a file. Builds the epsilon
+     * closures.
+     *
+     * long version: the version of the NFA the snapshot comes from
+     * int startState: the index of the start state
+     * boolean[] acceptStates: true at the index of each accept state
+     * int[] edgeStart, edgeChars, edgeTargets: the edges, laid out as in a
+     *      snapshot taken of an NFA
+     */
+    NFASnapshot(long version, int startState, boolean[] acceptStates,
+        int[] edgeStart, int[] edgeChars, int[] edgeTargets)
+    {
+        this.version = version;
+        this.stateCount = acceptStates.length;
+        this.startState = startState;
+        this.acceptStates = acceptStates;
+        this.edgeStart = edgeStart;
+        this.edgeChars = edgeChars;
+        this.edgeTargets = edgeTargets;
+        epsilonClosures = new int[stateCount][];
+        buildWork = stateCount + edgeTargets.length + buildEpsilonClosures();
+    }
+
+    /**
+     * Builds the reverse of the snapshot, which accepts exactly the reverse
+     * of every string the snapshot accepts. Every edge is turned around, the
+     * old start state becomes the only accept state, and a new start state
+     * (numbered after every old state) has an epsilon edge to each old accept
+     * state.
+     *
+     * Returns the reversed snapshot.
+     */
+    public NFASnapshot reverse()
+    {
+        int edgeCount = edgeStart[stateCount];
+        int[] reversedStart = new int[stateCount + 2];
+        for (int e = 0; e < edgeCount; e++)
+        {
+            reversedStart[edgeTargets[e] + 1]++;
+        }
+        for (int s = 0; s < stateCount; s++)
+        {
+            if (acceptStates[s])
+            {
+                reversedStart[stateCount + 1]++;
+            }
+        }
+        for (int s = 0; s <= stateCount; s++)
+        {
+            reversedStart[s + 1] += reversedStart[s];
+        }
+
+        int[] fill = new int[stateCount + 1];
+        System.arraycopy(reversedStart, 0, fill, 0, stateCount + 1);
+        int[] chars = new int[reversedStart[stateCount + 1]];
+        int[] targets = new int[chars.length];
+        for (int s = 0; s < stateCount; s++)
+        {
+            for (int e = edgeStart[s]; e < edgeStart[s + 1]; e++)
+            {
+                int f = fill[edgeTargets[e]]++;
+                chars[f] = edgeChars[e];
+                targets[f] = s;
+            }
+        }
+        for (int s = 0; s < stateCount; s++)
+        {
+            if (acceptStates[s])
+            {
+                int f = fill[stateCount]++;
+                chars[f] = EPSILON;
+                targets[f] = s;
+            }
+        }
+
+        boolean[] accept = new boolean[stateCount + 1];
+        accept[startState] = true;
+        return new NFASnapshot(version, stateCount, accept, reversedStart, chars, targets);
+    }
+
+    /**
+     * Works out the epsilon closure of every state with a depth first search
+     * from each state. Uses an explicit stack and marks each state once per
+     * search, so epsilon cycles are only followed once.
+     *
+     * Returns the number of states and edges gone through.
+     */
+    private long buildEpsilonClosures()
+    {
+        int[] mark = new int[stateCount];
+        int[] stack = new int[stateCount];
+        int[] closure = new int[stateCount];
+        long work = 0;
+
+        for (int s = 0; s < stateCount; s++)
+        {
+            int size = 0;
+            int top = 0;
+            // marks hold s + 1 so that the zeroed array means unmarked
+            mark[s] = s + 1;
+            stack[top++] = s;
+            while (top > 0)
+            {
+                int q = stack[--top];
+                closure[size++] = q;
+                work += 1 + edgeStart[q + 1] - edgeStart[q];
+                for (int e = edgeStart[q]; e < edgeStart[q + 1]; e++)
+                {
+                    int to = edgeTargets[e];
+                    if (edgeChars[e] == EPSILON && mark[to] != s + 1)
+                    {
+                        mark[to] = s + 1;
+                        stack[top++] = to;
+                    }
+                }
+            }
+            epsilonClosures[s] = new int[size];
+            System.arraycopy(closure, 0, epsilonClosures[s], 0, size);
+        }
+        return work;
+    }
+
+    /**
+     * Returns the number of states in the snapshot.
+     */
+    public int getStateCount()
+    {
+        return stateCount;
+    }
+
+    /**
+     * Returns the number of states and edges gone through building the
+     * snapshot and its epsilon closures, for charging to a run's budget.
+     */
+    public long getBuildWork()
+    {
+        return buildWork;
+    }
+
+    /**
+     * Returns the version of the NFA the snapshot was taken of.
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Runs the snapshot over the code points of the input with the set
+     * simulation. Makes a new matcher for every call, so when running many
+     * inputs make one NFAMatcher and reuse it.
+     *
+     * CharSequence input: the input to run on
+     *
+     * Returns true if the input is accepted and false otherwise.
+     */
+    public boolean matches(CharSequence input)
+    {
+        return new NFAMatcher(this).matches(input, 0);
+    }
+
+    /**
+     * Compiles the snapshot into a DFA by subset construction.
+     *
+     * Returns the compiled DFA. Throws IllegalStateException if the DFA would
+     * be too large.
+     */
+    public DFA compile()
+    {
+        return DFA.compile(this);
+    }
+
+    /**
+     * Returns the index of the start state.
+     */
+    public int getStartState()
+    {
+        return startState;
+    }
+
+    /**
+     * Returns true if the state with the given index is an accept state.
+     *
+     * int s: the index of the state
+     */
+    public boolean isAcceptState(int s)
+    {
+        return acceptStates[s];
+    }
+
+    /**
+     * Returns the index of the first edge of the given state. The edges of
+     * state s are getEdgeStart(s) up to (but not including) getEdgeStart(s + 1).
+     *
+     * int s: the index of the state, or the state count for the end of the
+     *      last state's edges
+     */
+    public int getEdgeStart(int s)
+    {
+        return edgeStart[s];
+    }
+
+    /**
+     * Returns the code point the given edge consumes, or EPSILON.
+     *
+     * int e: the index of the edge
+     */
+    public int getEdgeChar(int e)
+    {
+        return edgeChars[e];
+    }
+
+    /**
+     * Returns the index of the state the given edge goes to.
+     *
+     * int e: the index of the edge
+     */
+    public int getEdgeTarget(int e)
+    {
+        return edgeTargets[e];
+    }
+
+    /**
+     * Returns the epsilon closure of the given state: the indexes of every
+     * state reachable from it through epsilon edges, starting with the state
+     * itself. The returned array is shared and must not be changed.
+     *
+     * int s: the index of the state
+     */
+    public int[] getEpsilonClosure(int s)
+    {
+        return epsilonClosures[s];
+    }
+}
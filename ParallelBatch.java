@@ -0,0 +1,200 @@
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Runs a batch of inputs on a fork/join pool. Ranges larger than the batch
+ * size are split in half, with one half forked off for another worker to
+ * take. Everything shared between workers (the snapshot, the DFA, the
+ * alphabet and the bitset masks) is only read.
+ *
+ * Each worker thread makes one matcher the first time it runs a range of the
+ * batch and keeps it, in a ThreadLocal belonging to the batch, for every
+ * other range it runs, so a batch makes at most one matcher per thread and a
+ * lazy DFA's cache stays warm from one range to the next. Every range writes
+ * the outcome of each of its inputs straight into one array, at the index of
+ * the input, so nothing is copied when the halves are joined; the task of
+ * the whole batch makes the BatchResult from the array once every range has
+ * finished.
+ *
+ * static final int MIN_BATCH_SIZE: the fewest inputs a range is split down to
+ * static final int BATCHES_PER_THREAD: the number of ranges per worker a
+ *      batch is split into, so that workers that finish early can take more
+ * List<? extends CharSequence> inputs: the whole batch of inputs
+ * int from, to: the range of inputs to run
+ * int batchSize: the largest range run without being split
+ * int engine: the engine to run with
+ * NFASnapshot graph: the snapshot to run
+ * DFA dfa: the compiled DFA, for DFA_ENGINE
+ * BitSetMatcher bitSet: the matcher whose masks to share, for BITSET_ENGINE
+ * Alphabet alphabet: the snapshot's alphabet, for LAZY_DFA_ENGINE
+ * long lazyDFAMemoryBudget: the cache budget, for LAZY_DFA_ENGINE
+ * ThreadLocal<Object> matchers: each worker's matcher for the batch
+ * boolean[] accepted: true at the index of each input accepted
+ * boolean whole: true for the task of the whole batch
+ */
+public class ParallelBatch extends RecursiveTask<BatchResult>
+{
+    public static final int MIN_BATCH_SIZE = 256;
+    public static final int BATCHES_PER_THREAD = 8;
+
+    private final List<? extends CharSequence> inputs;
+    private final int from;
+    private final int to;
+    private final int batchSize;
+    private final int engine;
+    private final NFASnapshot graph;
+    private final DFA dfa;
+    private final BitSetMatcher bitSet;
+    private final Alphabet alphabet;
+    private final long lazyDFAMemoryBudget;
+    private final ThreadLocal<Object> matchers;
+    private final boolean[] accepted;
+    private final boolean whole;
+
+    /**
+     * Constructor for the ParallelBatch of a whole batch.
+     *
+     * List<? extends CharSequence> inputs: the batch of inputs, which should
+     *      allow fast random access
+     * int batchSize: the largest range to run without splitting
+     * int engine: any engine but NFA.BACKTRACK_ENGINE
+     * NFASnapshot graph: the snapshot to run
+     * DFA dfa: the compiled DFA, or null unless engine is NFA.DFA_ENGINE
+     * BitSetMatcher bitSet: a matcher for the snapshot, or null unless engine
+     *      is NFA.BITSET_ENGINE
+     * Alphabet alphabet: the snapshot's alphabet, or null unless engine is
+     *      NFA.LAZY_DFA_ENGINE
+     * long lazyDFAMemoryBudget: the most bytes each lazy DFA's cache may use
+     */
+    public ParallelBatch(List<? extends CharSequence> inputs, int batchSize, int engine,
+        NFASnapshot graph, DFA dfa, BitSetMatcher bitSet, Alphabet alphabet, long lazyDFAMemoryBudget)
+    {
+        this.inputs = inputs;
+        this.from = 0;
+        this.to = inputs.size();
+        this.batchSize = batchSize;
+        this.engine = engine;
+        this.graph = graph;
+        this.dfa = dfa;
+        this.bitSet = bitSet;
+        this.alphabet = alphabet;
+        this.lazyDFAMemoryBudget = lazyDFAMemoryBudget;
+        this.matchers = new ThreadLocal<Object>();
+        this.accepted = new boolean[inputs.size()];
+        this.whole = true;
+    }
+
+    /**
+     * Constructor for the ParallelBatch of part of a batch.
+     *
+     * ParallelBatch batch: the task the range was split from
+     * int from, to: the range of inputs to run, from inclusive, to exclusive
+     */
+    private ParallelBatch(ParallelBatch batch, int from, int to)
+    {
+        this.inputs = batch.inputs;
+        this.from = from;
+        this.to = to;
+        this.batchSize = batch.batchSize;
+        this.engine = batch.engine;
+        this.graph = batch.graph;
+        this.dfa = batch.dfa;
+        this.bitSet = batch.bitSet;
+        this.alphabet = batch.alphabet;
+        this.lazyDFAMemoryBudget = batch.lazyDFAMemoryBudget;
+        this.matchers = batch.matchers;
+        this.accepted = batch.accepted;
+        this.whole = false;
+    }
+
+    /**
+     * Runs the range, splitting it in half first if it is too large.
+     *
+     * Returns whether each input of the batch was accepted, in order, for
+     * the task of the whole batch, and null for the task of a part of it.
+     */
+    protected BatchResult compute()
+    {
+        if (to - from <= batchSize)
+        {
+            runRange();
+        }
+        else
+        {
+            int middle = (from + to) >>> 1;
+            ParallelBatch left = new ParallelBatch(this, from, middle);
+            ParallelBatch right = new ParallelBatch(this, middle, to);
+            left.fork();
+            right.compute();
+            left.join();
+        }
+        return whole ? new BatchResult(accepted) : null;
+    }
+
+    /**
+     * Runs every input of the range on this thread with the thread's
+     * matcher, making it if this is the first range the thread has run.
+     */
+    private void runRange()
+    {
+        if (engine == NFA.DFA_ENGINE)
+        {
+            for (int i = from; i < to; i++)
+            {
+                accepted[i] = dfa.matches(inputs.get(i), 0);
+            }
+        }
+        else if (engine == NFA.BITSET_ENGINE)
+        {
+            BitSetMatcher matcher = (BitSetMatcher) matchers.get();
+            if (matcher == null)
+            {
+                matcher = new BitSetMatcher(bitSet);
+                matchers.set(matcher);
+            }
+            for (int i = from; i < to; i++)
+            {
+                accepted[i] = matcher.matches(inputs.get(i), 0);
+            }
+        }
+        else if (engine == NFA.LAZY_DFA_ENGINE)
+        {
+            LazyDFA lazyDFA = (LazyDFA) matchers.get();
+            if (lazyDFA == null)
+            {
+                lazyDFA = new LazyDFA(graph, alphabet, lazyDFAMemoryBudget);
+                matchers.set(lazyDFA);
+            }
+            for (int i = from; i < to; i++)
+            {
+                accepted[i] = lazyDFA.matches(inputs.get(i), 0);
+            }
+        }
+        else if (engine == NFA.STACK_ENGINE)
+        {
+            StackMatcher matcher = (StackMatcher) matchers.get();
+            if (matcher == null)
+            {
+                matcher = new StackMatcher(graph);
+                matchers.set(matcher);
+            }
+            for (int i = from; i < to; i++)
+            {
+                accepted[i] = matcher.matches(inputs.get(i), 0);
+            }
+        }
+        else
+        {
+            NFAMatcher matcher = (NFAMatcher) matchers.get();
+            if (matcher == null)
+            {
+                matcher = new NFAMatcher(graph);
+                matchers.set(matcher);
+            }
+            for (int i = from; i < to; i++)
+            {
+                accepted[i] = matcher.matches(inputs.get(i), 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Runs a DFA over one large input on several threads at once. The input is
+ * split into chunks, and since a chunk's worker can't know which state the
+ * DFA will be in when the chunk starts, it runs the chunk from every state at
+ * once and records the state each one ends in. Those mappings are then
+ * stitched together: the mapping of two neighbouring chunks is the first
+ * chunk's mapping followed by the second's. The first chunk is only run from
+ * the start state.
+ *
+ * Running from every state sounds like it costs the number of states times
+ * the length of the chunk, but runs that reach the same state follow the same
+ * path from then on and are merged, so after a few characters most DFAs are
+ * down to a handful of distinct runs, and usually to one.
+ *
+ * static final int MIN_CHUNK_SIZE: the fewest chars a chunk is split down to
+ * static final int CHUNKS_PER_THREAD: the number of chunks per worker an
+ *      input is split into
+ * DFA dfa: the DFA to run
+ * CharSequence input: the whole input
+ * int from, to: the range of chars to run
+ * int chunkSize: the largest range run without being split
+ */
+public class ParallelScan extends RecursiveTask<int[]>
+{
+    public static final int MIN_CHUNK_SIZE = 1 << 16;
+    public static final int CHUNKS_PER_THREAD = 4;
+
+    private final DFA dfa;
+    private final CharSequence input;
+    private final int from;
+    private final int to;
+    private final int chunkSize;
+
+    /**
+     * Constructor for ParallelScan.
+     *
+     * DFA dfa: the DFA to run
+     * CharSequence input: the whole input, which mustn't change while it is
+     *      being run
+     * int from, to: the range of chars to run, from inclusive, to exclusive,
+     *      neither splitting a surrogate pair
+     * int chunkSize: the largest range to run without splitting
+     */
+    public ParallelScan(DFA dfa, CharSequence input, int from, int to, int chunkSize)
+    {
+        this.dfa = dfa;
+        this.input = input;
+        this.from = from;
+        this.to = to;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Runs a DFA over the whole of an input split across the threads of a
+     * fork/join pool.
+     *
+     * DFA dfa: the DFA to run
+     * CharSequence input: the input to run it on
+     * ForkJoinPool pool: the pool to run in
+     *
+     * Returns true if the DFA accepts the input and false otherwise.
+     */
+    public static boolean matches(DFA dfa, CharSequence input, ForkJoinPool pool)
+    {
+        int chunkSize = Math.max(MIN_CHUNK_SIZE,
+            input.length() / (pool.getParallelism() * CHUNKS_PER_THREAD));
+        int[] mapping = pool.invoke(new ParallelScan(dfa, input, 0, input.length(), chunkSize));
+        int end = mapping[dfa.getStartState()];
+        return end >= 0 && dfa.isAcceptState(end);
+    }
+
+    /**
+     * Runs the range, splitting it in half first if it is too large.
+     *
+     * Returns the state the DFA ends the range in from each state it could
+     * start the range in, or -1 for states the range isn't run from.
+     */
+    protected int[] compute()
+    {
+        if (to - from <= chunkSize)
+        {
+            return runChunk();
+        }
+        int middle = (from + to) >>> 1;
+        if (Character.isLowSurrogate(input.charAt(middle))
+            && Character.isHighSurrogate(input.charAt(middle - 1)))
+        {
+            middle++;
+            if (middle == to)
+            {
+                // the range is a single pair, too small to split
+                return runChunk();
+            }
+        }
+        ParallelScan left = new ParallelScan(dfa, input, from, middle, chunkSize);
+        ParallelScan right = new ParallelScan(dfa, input, middle, to, chunkSize);
+        left.fork();
+        int[] rightMapping = right.compute();
+        int[] mapping = left.join();
+
+        for (int s = 0; s < mapping.length; s++)
+        {
+            if (mapping[s] >= 0)
+            {
+                mapping[s] = rightMapping[mapping[s]];
+            }
+        }
+        return mapping;
+    }
+
+    /**
+     * Runs the DFA over the range from every state at once (or only from the
+     * start state for the first range), merging runs that reach the same
+     * state.
+     *
+     * Returns the state the DFA ends the range in from each state, or -1 for
+     * states the range isn't run from.
+     */
+    private int[] runChunk()
+    {
+        int stateCount = dfa.getStateCount();
+        Alphabet alphabet = dfa.getAlphabet();
+
+        // run r is in state runs[r]; start state s became run owner[s]
+        int[] owner = new int[stateCount];
+        int[] runs;
+        int runCount;
+        if (from == 0)
+        {
+            Arrays.fill(owner, -1);
+            owner[dfa.getStartState()] = 0;
+            runs = new int[] {dfa.getStartState()};
+            runCount = 1;
+        }
+        else
+        {
+            runs = new int[stateCount];
+            for (int s = 0; s < stateCount; s++)
+            {
+                owner[s] = s;
+                runs[s] = s;
+            }
+            runCount = stateCount;
+        }
+
+        int[] merged = new int[runs.length];
+        int[] runOf = new int[stateCount];
+        int[] mark = new int[stateCount];
+        int stamp = 0;
+        int i = from;
+        while (i < to)
+        {
+            int c = Character.codePointAt(input, i);
+            i += Character.charCount(c);
+            int cls = alphabet.classOf(c);
+            if (runCount == 1)
+            {
+                runs[0] = dfa.next(runs[0], cls);
+                continue;
+            }
+
+            stamp++;
+            int newCount = 0;
+            for (int r = 0; r < runCount; r++)
+            {
+                int t = dfa.next(runs[r], cls);
+                if (mark[t] != stamp)
+                {
+                    mark[t] = stamp;
+                    runOf[t] = newCount;
+                    runs[newCount++] = t;
+                }
+                merged[r] = runOf[t];
+            }
+            if (newCount < runCount)
+            {
+                for (int s = 0; s < stateCount; s++)
+                {
+                    if (owner[s] >= 0)
+                    {
+                        owner[s] = merged[owner[s]];
+                    }
+                }
+                runCount = newCount;
+            }
+        }
+
+        int[] mapping = new int[stateCount];
+        for (int s = 0; s < stateCount; s++)
+        {
+            mapping[s] = owner[s] >= 0 ? runs[owner[s]] : -1;
+        }
+        return mapping;
+    }
+}
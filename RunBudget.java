@@ -0,0 +1,122 @@
+/**
+ * Caps the work a single run of an NFA may do, so that running an automaton
+ * someone else built can't go on forever. A run that goes over any of the
+ * caps stops and reports NFA.BUDGET_EXCEEDED instead of accepting or
+ * rejecting.
+ *
+ * A step is a unit of real work: a state or edge gone through. The set
+ * simulation takes a step for every active state and every edge it tries,
+ * the bitset simulation one for every word and mask it goes through, and the
+ * lazy DFA engine one for every NFA state and edge it goes through working
+ * out a DFA state it hasn't cached, with at least one step per code point
+ * for each of them. The DFA engine takes one step per code point. The stack
+ * engine takes a step for every state it enters and every edge it tries, and
+ * the backtracking engine one for every state it enters. Building the
+ * snapshot, matcher or masks a run needs is charged to the run that builds
+ * them, so a run of a huge automaton goes over the budget before it reads
+ * any input rather than after. The active states cap applies to the set and
+ * bitset simulations, starting with the states active before any input is
+ * read, and to the lazy DFA engine once it has fallen back to the set
+ * simulation. The other engines are only ever in one state at a time.
+ *
+ * A RunBudget never changes once it is made, so the same one can be shared by
+ * any number of runs.
+ *
+ * static final long NO_LIMIT: the value for a cap that isn't set
+ * static final RunBudget UNLIMITED: a budget with no caps at all
+ * long maxSteps: the most steps a run may take
+ * long maxActiveStates: the most states that may be active at once
+ * long timeoutMillis: the most milliseconds a run may take
+ */
+public class RunBudget
+{
+    public static final long NO_LIMIT = Long.MAX_VALUE;
+    public static final RunBudget UNLIMITED = new RunBudget(NO_LIMIT, NO_LIMIT, NO_LIMIT);
+
+    private final long maxSteps;
+    private final long maxActiveStates;
+    private final long timeoutMillis;
+
+    /**
+     * Constructor for RunBudget. Any cap can be NO_LIMIT.
+     *
+     * long maxSteps: the most steps a run may take
+     * long maxActiveStates: the most states that may be active at once
+     * long timeoutMillis: the most milliseconds a run may take
+     */
+    public RunBudget(long maxSteps, long maxActiveStates, long timeoutMillis)
+    {
+        if (maxSteps < 0 || maxActiveStates < 0 || timeoutMillis < 0)
+        {
+            throw new IllegalArgumentException("Budget caps can't be negative");
+        }
+        this.maxSteps = maxSteps;
+        this.maxActiveStates = maxActiveStates;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Returns the most steps a run may take.
+     */
+    public long getMaxSteps()
+    {
+        return maxSteps;
+    }
+
+    /**
+     * Returns the most states that may be active at once.
+     */
+    public long getMaxActiveStates()
+    {
+        return maxActiveStates;
+    }
+
+    /**
+     * Returns the most milliseconds a run may take.
+     */
+    public long getTimeoutMillis()
+    {
+        return timeoutMillis;
+    }
+
+    /**
+     * Returns a copy of the budget with a different step cap.
+     *
+     * long maxSteps: the most steps a run may take
+     */
+    public RunBudget withMaxSteps(long maxSteps)
+    {
+        return new RunBudget(maxSteps, maxActiveStates, timeoutMillis);
+    }
+
+    /**
+     * Returns a copy of the budget with a different active states cap.
+     *
+     * long maxActiveStates: the most states that may be active at once
+     */
+    public RunBudget withMaxActiveStates(long maxActiveStates)
+    {
+        return new RunBudget(maxSteps, maxActiveStates, timeoutMillis);
+    }
+
+    /**
+     * Returns a copy of the budget with a different time limit.
+     *
+     * long timeoutMillis: the most milliseconds a run may take
+     */
+    public RunBudget withTimeoutMillis(long timeoutMillis)
+    {
+        return new RunBudget(maxSteps, maxActiveStates, timeoutMillis);
+    }
+
+    /**
+     * Returns a string describing the caps, such as
+     * "steps 1000000, active states unlimited, timeout 50ms".
+     */
+    public String toString()
+    {
+        return "steps " + (maxSteps == NO_LIMIT ? "unlimited" : "" + maxSteps)
+            + ", active states " + (maxActiveStates == NO_LIMIT ? "unlimited" : "" + maxActiveStates)
+            + ", timeout " + (timeoutMillis == NO_LIMIT ? "unlimited" : timeoutMillis + "ms");
+    }
+}
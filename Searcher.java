@@ -0,0 +1,242 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+
+/**
+ * Finds the substrings of a text that an NFA accepts, the way grep finds
+ * lines, instead of only deciding whether the whole text is accepted.
+ *
+ * A search is made in two parts. First an unanchored DFA built from the
+ * reverse of the NFA is run backwards over the text once. It is in an accept
+ * state at exactly the positions some match starts at, so the starts are all
+ * found without trying the NFA from every offset. Then, from the leftmost
+ * start not inside an earlier match, the ordinary DFA is run forwards to
+ * find where the match ends, and the search carries on after it. Matches
+ * never overlap.
+ *
+ * Two ways of choosing the end are offered. LEFTMOST_SHORTEST takes the
+ * first end reached from the leftmost start, that is the shortest match
+ * there. It is not the leftmost first match of a backtracking regex engine:
+ * the NFA has no priorities between its transitions, and the DFA doesn't
+ * keep the order of the edges, so the end reported never depends on which
+ * transition was added first. Each run stops at the end it reports and the
+ * next starts after it, so no character is read forwards twice.
+ *
+ * LEFTMOST_LONGEST takes the longest match from the leftmost start, as POSIX
+ * tools do. A run keeps the last position the DFA accepted at and reads on
+ * until the DFA dies, so it reads past the end it reports, and the next run
+ * starts back at that end. The DFA state at every position read past the
+ * end is remembered as dead, since no accept state is reached from it, and a
+ * later run that is in a remembered state at a remembered position stops
+ * there without reading on. The runs are deterministic, so two that are in
+ * the same state at the same position read the same text from then on, and
+ * each position is read forwards at most once for every DFA state rather
+ * than once for every match. For a|a*b over a text of n a's that is about
+ * 2n characters in all, where reading on from every match would be about
+ * n * n / 2.
+ *
+ * Offsets are char indexes into the text, and a surrogate pair is read as a
+ * single character. A Searcher never changes once it is built, so any number
+ * of threads can search with it at once.
+ *
+ * static final ints LEFTMOST_LONGEST, LEFTMOST_SHORTEST: the ways of choosing
+ *      where a match ends
+ * DFA forward: the anchored DFA of the NFA
+ * DFA reverseStarts: the unanchored DFA of the reversed NFA
+ */
+public class Searcher
+{
+    public static final int
+        LEFTMOST_LONGEST = 0,
+        LEFTMOST_SHORTEST = 1;
+
+    private final DFA forward;
+    private final DFA reverseStarts;
+
+    /**
+     * Constructor for Searcher. Compiles the DFAs for the NFA's current
+     * snapshot.
+     *
+     * NFA nfa: the NFA whose matches to find
+     *
+     * Throws IllegalStateException if either DFA would be too large.
+     */
+    public Searcher(NFA nfa)
+    {
+        this(nfa.getSnapshot());
+    }
+
+    /**
+     * Constructor for Searcher. Compiles the DFAs for a snapshot.
+     *
+     * NFASnapshot graph: the snapshot whose matches to find
+     *
+     * Throws IllegalStateException if either DFA would be too large.
+     */
+    public Searcher(NFASnapshot graph)
+    {
+        forward = DFA.compile(graph);
+        reverseStarts = DFA.compileUnanchored(graph.reverse());
+    }
+
+    /**
+     * Finds every match in a text, from left to right.
+     *
+     * CharSequence text: the text to search
+     * int mode: LEFTMOST_LONGEST or LEFTMOST_SHORTEST
+     *
+     * Returns the matches in order, each as {start, end} with the end
+     * exclusive.
+     */
+    public ArrayList<int[]> findAll(CharSequence text, int mode)
+    {
+        if (mode != LEFTMOST_LONGEST && mode != LEFTMOST_SHORTEST)
+        {
+            throw new IllegalArgumentException("Unknown search mode: " + mode);
+        }
+        ArrayList<int[]> matches = new ArrayList<int[]>();
+        HashSet<Long> dead = new HashSet<Long>();
+        BitSet starts = findStarts(text);
+        int length = text.length();
+        int from = 0;
+        int start;
+        while ((start = starts.nextSetBit(from)) >= 0)
+        {
+            int end = findEnd(text, start, mode, dead);
+            matches.add(new int[] {start, end});
+            if (end > start)
+            {
+                from = end;
+            }
+            else if (start < length)
+            {
+                // an empty match; move on a character so it isn't found again
+                from = start + Character.charCount(Character.codePointAt(text, start));
+            }
+            else
+            {
+                break;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Returns the first match in a text, or null if there is none.
+     *
+     * CharSequence text: the text to search
+     * int mode: LEFTMOST_LONGEST or LEFTMOST_SHORTEST
+     */
+    public int[] find(CharSequence text, int mode)
+    {
+        int start = findStarts(text).nextSetBit(0);
+        if (start < 0)
+        {
+            return null;
+        }
+        return new int[] {start, findEnd(text, start, mode, null)};
+    }
+
+    /**
+     * Runs the reversed DFA backwards over the whole text, marking every
+     * position at which some match starts.
+     *
+     * CharSequence text: the text to search
+     *
+     * Returns the set of start positions.
+     */
+    private BitSet findStarts(CharSequence text)
+    {
+        Alphabet alphabet = reverseStarts.getAlphabet();
+        BitSet starts = new BitSet(text.length() + 1);
+        int state = reverseStarts.getStartState();
+        int i = text.length();
+        if (reverseStarts.isAcceptState(state))
+        {
+            starts.set(i);
+        }
+        while (i > 0)
+        {
+            int c = Character.codePointBefore(text, i);
+            i -= Character.charCount(c);
+            state = reverseStarts.next(state, alphabet.classOf(c));
+            if (reverseStarts.isAcceptState(state))
+            {
+                starts.set(i);
+            }
+        }
+        return starts;
+    }
+
+    /**
+     * Runs the forward DFA from a position some match is known to start at
+     * and returns where the match chosen by the mode ends. The states the
+     * run is in at the positions it reads past the end are added to the dead
+     * pairs, and the run stops early if it reaches one.
+     *
+     * CharSequence text: the text being searched
+     * int start: the start of the match
+     * int mode: LEFTMOST_LONGEST or LEFTMOST_SHORTEST
+     * HashSet<Long> dead: the (position, state) pairs from which no accept
+     *      state is reached, as keys made by deadKey, or null to not keep them
+     */
+    private int findEnd(CharSequence text, int start, int mode, HashSet<Long> dead)
+    {
+        Alphabet alphabet = forward.getAlphabet();
+        int state = forward.getStartState();
+        int end = -1;
+        int length = text.length();
+        int i = start;
+        // the pairs read since the last accept state, dead unless another comes
+        ArrayList<Long> sinceAccept = new ArrayList<Long>();
+        while (true)
+        {
+            if (forward.isAcceptState(state))
+            {
+                end = i;
+                if (mode == LEFTMOST_SHORTEST)
+                {
+                    break;
+                }
+                sinceAccept.clear();
+            }
+            else if (dead != null)
+            {
+                Long key = deadKey(i, state);
+                if (dead.contains(key))
+                {
+                    break;
+                }
+                sinceAccept.add(key);
+            }
+            if (i >= length)
+            {
+                break;
+            }
+            int c = Character.codePointAt(text, i);
+            i += Character.charCount(c);
+            state = forward.next(state, alphabet.classOf(c));
+            if (state == DFA.DEAD_STATE)
+            {
+                break;
+            }
+        }
+        if (dead != null)
+        {
+            dead.addAll(sinceAccept);
+        }
+        return end;
+    }
+
+    /**
+     * Returns the key a (position, state) pair of the forward DFA is kept
+     * under in the dead pairs.
+     *
+     * int position: the position in the text
+     * int state: the forward DFA's state there
+     */
+    private long deadKey(int position, int state)
+    {
+        return (long) position * forward.getStateCount() + state;
+    }
+}
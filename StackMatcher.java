@@ -0,0 +1,249 @@
+import java.util.BitSet;
+
+/**
+ * Runs an NFA snapshot with a depth first search that tries paths in the
+ * same order as NFA's recursive run() method, but keeps its own work stack
+ * instead of recursing, so long inputs can't overflow the JVM stack.
+ *
+ * Each frame on the work stack is a state, the position in the input the
+ * state was reached at, and the next edge of the state to try. Every
+ * (state, position) pair the search enters is remembered, as the recursive
+ * run() does, and is never entered again: either it is still on the current
+ * path, so going back to it is going around an epsilon cycle, or it has
+ * already been searched and failed. That makes every epsilon cycle safe, and
+ * bounds the work by the number of states times (input length + 1) instead
+ * of by the number of paths, which can grow exponentially.
+ *
+ * The work stack, the code points of the input and the remembered positions
+ * are kept from one run to the next and only grow, so a batch of inputs
+ * allocates nothing once the longest has been run. Only the positions of the
+ * states the last run entered are cleared before the next. A matcher is not
+ * safe to use from more than one thread at a time.
+ *
+ * NFASnapshot graph: the snapshot being run
+ * int[] codePoints: the code points of the last input given as chars
+ * int[] frames: the work stack, three ints per frame
+ * BitSet[] visited: the positions each state has been entered at in the
+ *      current run, by state, made as needed
+ * int[] entered: the states with positions in visited
+ * int enteredCount: the number of entries of entered in use
+ */
+public class StackMatcher
+{
+    private NFASnapshot graph;
+    private int[] codePoints = new int[64];
+    private int[] frames = new int[48];
+    private BitSet[] visited;
+    private int[] entered;
+    private int enteredCount;
+
+    /**
+     * Constructor for StackMatcher.
+     *
+     * NFASnapshot graph: the snapshot to run
+     */
+    public StackMatcher(NFASnapshot graph)
+    {
+        this.graph = graph;
+        visited = new BitSet[graph.getStateCount()];
+        entered = new int[graph.getStateCount()];
+    }
+
+    /**
+     * Returns the snapshot the matcher runs.
+     */
+    public NFASnapshot getSnapshot()
+    {
+        return graph;
+    }
+
+    /**
+     * Runs the NFA over the code points of the input from the given offset
+     * to the end. Surrogate pairs are read as a single code point.
+     *
+     * CharSequence input: the input to run the NFA on
+     * int offset: the index of the first char to read
+     *
+     * Returns true if the input is accepted and false otherwise.
+     */
+    public boolean matches(CharSequence input, int offset)
+    {
+        return matches(input, offset, null);
+    }
+
+    /**
+     * Runs the NFA over the code points of the input from the given offset
+     * to the end, charging the meter for every state entered and every edge
+     * tried.
+     *
+     * CharSequence input: the input to run the NFA on
+     * int offset: the index of the first char to read
+     * BudgetMeter meter: counts the work done, or null for no limits
+     *
+     * Returns true if the input is accepted and false if it isn't or the
+     * budget was gone over.
+     */
+    public boolean matches(CharSequence input, int offset, BudgetMeter meter)
+    {
+        int length = input.length();
+        if (length - offset > codePoints.length)
+        {
+            codePoints = new int[Math.max(length - offset, codePoints.length * 2)];
+        }
+        int count = 0;
+        int i = offset;
+        while (i < length)
+        {
+            int c = Character.codePointAt(input, i);
+            i += Character.charCount(c);
+            codePoints[count++] = c;
+        }
+        return matches(codePoints, 0, count, meter);
+    }
+
+    /**
+     * Runs the NFA over part of an array of code points.
+     *
+     * int[] input: the code points to read
+     * int offset: the index of the first code point to read
+     * int length: the number of code points to read
+     *
+     * Returns true if the input is accepted and false otherwise.
+     */
+    public boolean matches(int[] input, int offset, int length)
+    {
+        return matches(input, offset, length, null);
+    }
+
+    /**
+     * Runs the NFA over part of an array of code points, charging the meter
+     * for every state entered and every edge tried. The edges tried are
+     * charged along with the next state entered.
+     *
+     * int[] input: the code points to read
+     * int offset: the index of the first code point to read
+     * int length: the number of code points to read
+     * BudgetMeter meter: counts the work done, or null for no limits
+     *
+     * Returns true if the input is accepted and false if it isn't or the
+     * budget was gone over.
+     */
+    public boolean matches(int[] input, int offset, int length, BudgetMeter meter)
+    {
+        // forget the positions entered by the last run
+        for (int i = 0; i < enteredCount; i++)
+        {
+            visited[entered[i]].clear();
+        }
+        enteredCount = 0;
+
+        int top = 0;
+        long edgesTried = 0;
+        int state = graph.getStartState();
+        int pos = 0;
+        // frame layout: state, position, next edge
+        frames[0] = state;
+        frames[1] = pos;
+        frames[2] = graph.getEdgeStart(state);
+        visit(state, pos, length);
+        if (pos == length && graph.isAcceptState(state))
+        {
+            return true;
+        }
+
+        while (top >= 0)
+        {
+            int base = top * 3;
+            state = frames[base];
+            pos = frames[base + 1];
+            int e = frames[base + 2];
+            int edgeEnd = graph.getEdgeStart(state + 1);
+
+            // find the next edge from this frame that leads somewhere new
+            int nextState = -1;
+            int nextPos = pos;
+            while (e < edgeEnd && nextState < 0)
+            {
+                int c = graph.getEdgeChar(e);
+                int to = graph.getEdgeTarget(e);
+                int at = -1;
+                if (c == NFASnapshot.EPSILON)
+                {
+                    at = pos;
+                }
+                else if (pos < length && c == input[offset + pos])
+                {
+                    at = pos + 1;
+                }
+                if (at >= 0 && visit(to, at, length))
+                {
+                    nextState = to;
+                    nextPos = at;
+                }
+                e++;
+                edgesTried++;
+            }
+            frames[base + 2] = e;
+
+            if (nextState < 0)
+            {
+                // every branch from this frame failed, so backtrack
+                top--;
+                continue;
+            }
+
+            if (nextPos == length && graph.isAcceptState(nextState))
+            {
+                return true;
+            }
+            if (meter != null && !meter.step(1 + edgesTried, 1))
+            {
+                return false;
+            }
+            edgesTried = 0;
+
+            top++;
+            base = top * 3;
+            if (base + 3 > frames.length)
+            {
+                int[] bigger = new int[frames.length * 2];
+                System.arraycopy(frames, 0, bigger, 0, frames.length);
+                frames = bigger;
+            }
+            frames[base] = nextState;
+            frames[base + 1] = nextPos;
+            frames[base + 2] = graph.getEdgeStart(nextState);
+        }
+        return false;
+    }
+
+    /**
+     * Marks a state as entered at an input position, unless it already has
+     * been in this run.
+     *
+     * int state: the state entered
+     * int position: the input position it was entered at
+     * int length: the length of the input
+     *
+     * Returns true if the state hadn't been entered at the position before.
+     */
+    private boolean visit(int state, int position, int length)
+    {
+        BitSet positions = visited[state];
+        if (positions == null)
+        {
+            positions = new BitSet(length + 1);
+            visited[state] = positions;
+        }
+        if (positions.get(position))
+        {
+            return false;
+        }
+        if (positions.isEmpty())
+        {
+            entered[enteredCount++] = state;
+        }
+        positions.set(position);
+        return true;
+    }
+}
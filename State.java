@@ -20,6 +20,8 @@ import java.util.ArrayList;
  *      transition (uses different highlight color)
  * ArrayList<Transition>s transitionsIn, transitionsOut: lists of the
  *      transitions in and out of the state
+ * NFA nfa: the NFA the state belongs to, or null if it hasn't been added to
+ *      one yet
  */
 public class State
 {
@@ -32,6 +34,7 @@ public class State
     protected boolean transitionSelected;
     protected ArrayList<Transition> transitionsIn = new ArrayList<Transition>();
     protected ArrayList<Transition> transitionsOut = new ArrayList<Transition>();
+    protected NFA nfa;
 
     /**
      * Constructor for a state. Initializes a state with a position and tells
@@ -82,6 +85,30 @@ public class State
     public void setAcceptState(boolean b)
     {
         acceptState = b;
+        graphChanged();
+    }
+
+    /**
+     * Sets the NFA the state belongs to. Called by the NFA when the state is
+     * added or removed.
+     *
+     * NFA nfa: the NFA the state was added to, or null if it was removed
+     */
+    public void setNFA(NFA nfa)
+    {
+        this.nfa = nfa;
+    }
+
+    /**
+     * Tells the NFA the state belongs to that the state or one of its
+     * transitions has changed, so that the NFA is run on the current graph.
+     */
+    public void graphChanged()
+    {
+        if (nfa != null)
+        {
+            nfa.graphChanged();
+        }
     }
 
     /**
@@ -180,6 +207,7 @@ public class State
     public void addTransitionIn(Transition t)
     {
         transitionsIn.add(t);
+        graphChanged();
     }
 
     /**
@@ -190,6 +218,7 @@ public class State
     public void addTransitionOut(Transition t)
     {
         transitionsOut.add(t);
+        graphChanged();
     }
 
     /**
@@ -200,6 +229,7 @@ public class State
     public void removeTransitionIn(Transition t)
     {
         transitionsIn.remove(t);
+        graphChanged();
     }
 
     /**
@@ -210,5 +240,6 @@ public class State
     public void removeTransitionOut(Transition t)
     {
         transitionsOut.remove(t);
+        graphChanged();
     }
 }
\ No newline at end of file
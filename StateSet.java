@@ -0,0 +1,44 @@
+import java.util.Arrays;
+
+/**
+ * A sorted set of NFA state indexes that can be used as a hash map key when
+ * turning sets of NFA states into DFA states.
+ *
+ * int[] states: the sorted indexes
+ * int hash: the hash code of states
+ */
+public class StateSet
+{
+    private final int[] states;
+    private final int hash;
+
+    /**
+     * Constructor for StateSet.
+     *
+     * int[] states: the sorted indexes, which must not be changed afterwards
+     */
+    public StateSet(int[] states)
+    {
+        this.states = states;
+        this.hash = Arrays.hashCode(states);
+    }
+
+    /**
+     * Returns the sorted indexes in the set. The returned array is shared and
+     * must not be changed.
+     */
+    public int[] getStates()
+    {
+        return states;
+    }
+
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    public boolean equals(Object o)
+    {
+        return o instanceof StateSet && Arrays.equals(states, ((StateSet) o).states);
+    }
+}
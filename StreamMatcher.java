@@ -0,0 +1,363 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Runs an NFA on input that is too large to hold in a String, such as a
+ * multi-gigabyte log. The input is read in fixed-size chunks from a Reader,
+ * an InputStream or a channel, and each chunk is fed through one of the NFA's
+ * engines, so memory use stays the same however long the input is. Once no
+ * state of the NFA is active nothing more can be accepted, so reading stops
+ * there and the position is reported.
+ *
+ * The input can also be fed by hand with feed() and finish(). A surrogate
+ * pair split between two chunks is joined back into one code point.
+ *
+ * A StreamMatcher is not safe to use from more than one thread at a time.
+ *
+ * static final int DEFAULT_CHUNK_SIZE: the number of chars read at a time
+ *      unless told otherwise
+ * static final int MIN_CHUNK_SIZE: the smallest chunk size used, which is
+ *      enough to hold any one encoded character
+ * int engine: NFA.SET_ENGINE, NFA.BITSET_ENGINE, NFA.LAZY_DFA_ENGINE or
+ *      NFA.DFA_ENGINE
+ * NFAMatcher setMatcher, BitSetMatcher bitSetMatcher, LazyDFA lazyDFA, DFA dfa:
+ *      the engine's matcher (only the one for engine is set)
+ * int dfaState: the current state of dfa
+ * char[] chars: the buffer chunks are read into
+ * ByteBuffer bytes: the buffer chunks of a channel are read into, made the
+ *      first time a channel is read
+ * char pendingHigh: the first half of a surrogate pair at the end of the
+ *      last chunk, or 0
+ * long charsRead: the number of chars fed so far
+ * long rejectedAt: the number of chars fed when every state died, or -1
+ */
+public class StreamMatcher
+{
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+    public static final int MIN_CHUNK_SIZE = 16;
+
+    private int engine;
+    private NFAMatcher setMatcher;
+    private BitSetMatcher bitSetMatcher;
+    private LazyDFA lazyDFA;
+    private DFA dfa;
+    private int dfaState;
+
+    private char[] chars;
+    private ByteBuffer bytes;
+    private char pendingHigh;
+    private long charsRead;
+    private long rejectedAt;
+
+    /**
+     * Constructor for StreamMatcher with the default chunk size.
+     *
+     * NFA nfa: the NFA to run
+     * int engine: the engine to run with
+     */
+    public StreamMatcher(NFA nfa, int engine)
+    {
+        this(nfa, engine, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructor for StreamMatcher. Takes a snapshot of the NFA, so changes
+     * made to the NFA afterwards don't affect the matcher.
+     *
+     * NFA nfa: the NFA to run
+     * int engine: NFA.SET_ENGINE, NFA.BITSET_ENGINE (which needs the NFA to
+     *      have at most BitSetMatcher.MAX_STATES states),
+     *      NFA.LAZY_DFA_ENGINE or NFA.DFA_ENGINE (which needs the NFA to have
+     *      been compiled)
+     * int chunkSize: the number of chars to read at a time, at least
+     *      MIN_CHUNK_SIZE
+     */
+    public StreamMatcher(NFA nfa, int engine, int chunkSize)
+    {
+        NFASnapshot graph = nfa.getSnapshot();
+        if (engine == NFA.SET_ENGINE)
+        {
+            setMatcher = new NFAMatcher(graph);
+        }
+        else if (engine == NFA.BITSET_ENGINE)
+        {
+            bitSetMatcher = new BitSetMatcher(graph);
+        }
+        else if (engine == NFA.LAZY_DFA_ENGINE)
+        {
+            lazyDFA = new LazyDFA(graph);
+        }
+        else if (engine == NFA.DFA_ENGINE)
+        {
+            dfa = nfa.getDFA();
+            if (dfa == null)
+            {
+                throw new IllegalStateException("The NFA has not been compiled since it last changed");
+            }
+        }
+        else
+        {
+            throw new IllegalArgumentException("Engine " + engine + " can't be run on a stream");
+        }
+        this.engine = engine;
+        chars = new char[Math.max(chunkSize, MIN_CHUNK_SIZE)];
+        reset();
+    }
+
+    /**
+     * Starts a new run from the start state.
+     */
+    public void reset()
+    {
+        if (engine == NFA.SET_ENGINE)
+        {
+            setMatcher.reset();
+        }
+        else if (engine == NFA.BITSET_ENGINE)
+        {
+            bitSetMatcher.reset();
+        }
+        else if (engine == NFA.LAZY_DFA_ENGINE)
+        {
+            lazyDFA.reset();
+        }
+        else
+        {
+            dfaState = dfa.getStartState();
+        }
+        pendingHigh = 0;
+        charsRead = 0;
+        rejectedAt = -1;
+    }
+
+    /**
+     * Runs the NFA over a chunk of input, carrying on from where the last
+     * chunk ended.
+     *
+     * char[] input: the chunk
+     * int offset: the index of the first char of the chunk
+     * int length: the number of chars in the chunk
+     *
+     * Returns false once the input has been rejected, whatever comes next.
+     */
+    public boolean feed(char[] input, int offset, int length)
+    {
+        if (rejectedAt >= 0)
+        {
+            return false;
+        }
+        int end = offset + length;
+        int i = offset;
+        if (pendingHigh != 0 && i < end)
+        {
+            int c = pendingHigh;
+            if (Character.isLowSurrogate(input[i]))
+            {
+                c = Character.toCodePoint(pendingHigh, input[i++]);
+            }
+            pendingHigh = 0;
+            if (!step(c))
+            {
+                charsRead += i - offset;
+                rejectedAt = charsRead;
+                return false;
+            }
+        }
+
+        while (i < end)
+        {
+            int c = input[i++];
+            if (Character.isHighSurrogate((char) c))
+            {
+                if (i == end)
+                {
+                    // the rest of the pair is in the next chunk
+                    pendingHigh = (char) c;
+                    break;
+                }
+                if (Character.isLowSurrogate(input[i]))
+                {
+                    c = Character.toCodePoint((char) c, input[i++]);
+                }
+            }
+            if (!step(c))
+            {
+                charsRead += i - offset;
+                rejectedAt = charsRead;
+                return false;
+            }
+        }
+        charsRead += length;
+        return true;
+    }
+
+    /**
+     * Ends the input.
+     *
+     * Returns true if the NFA accepts the input fed since the last reset and
+     * false otherwise.
+     */
+    public boolean finish()
+    {
+        if (pendingHigh != 0 && rejectedAt < 0)
+        {
+            char c = pendingHigh;
+            pendingHigh = 0;
+            if (!step(c))
+            {
+                rejectedAt = charsRead;
+            }
+        }
+        if (rejectedAt >= 0)
+        {
+            return false;
+        }
+        if (engine == NFA.SET_ENGINE)
+        {
+            return setMatcher.isAccepting();
+        }
+        else if (engine == NFA.BITSET_ENGINE)
+        {
+            return bitSetMatcher.isAccepting();
+        }
+        else if (engine == NFA.LAZY_DFA_ENGINE)
+        {
+            return lazyDFA.isAccepting();
+        }
+        return dfa.isAcceptState(dfaState);
+    }
+
+    /**
+     * Runs the NFA over everything a Reader has left, stopping as soon as the
+     * input is rejected. The reader is not closed.
+     *
+     * Reader reader: the input to run the NFA on
+     *
+     * Returns true if the NFA accepts the input and false otherwise.
+     * Throws IOException if the input can't be read.
+     */
+    public boolean matches(Reader reader) throws IOException
+    {
+        reset();
+        int read;
+        while ((read = reader.read(chars, 0, chars.length)) >= 0)
+        {
+            if (!feed(chars, 0, read))
+            {
+                return false;
+            }
+        }
+        return finish();
+    }
+
+    /**
+     * Runs the NFA over everything an InputStream has left, decoded with the
+     * given character set, stopping as soon as the input is rejected. The
+     * stream is not closed.
+     *
+     * InputStream in: the input to run the NFA on
+     * Charset charset: the encoding of the input
+     *
+     * Returns true if the NFA accepts the input and false otherwise.
+     * Throws IOException if the input can't be read.
+     */
+    public boolean matches(InputStream in, Charset charset) throws IOException
+    {
+        return matches(new InputStreamReader(in, charset));
+    }
+
+    /**
+     * Runs the NFA over everything a channel has left, decoded with the given
+     * character set, stopping as soon as the input is rejected. Malformed
+     * input is read as U+FFFD. The channel is not closed.
+     *
+     * ReadableByteChannel channel: the input to run the NFA on
+     * Charset charset: the encoding of the input
+     *
+     * Returns true if the NFA accepts the input and false otherwise.
+     * Throws IOException if the input can't be read.
+     */
+    public boolean matches(ReadableByteChannel channel, Charset charset) throws IOException
+    {
+        reset();
+        if (bytes == null)
+        {
+            bytes = ByteBuffer.allocate(chars.length);
+        }
+        bytes.clear();
+        CharBuffer decoded = CharBuffer.wrap(chars);
+        CharsetDecoder decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        boolean endOfInput = false;
+        while (!endOfInput)
+        {
+            endOfInput = channel.read(bytes) < 0;
+            bytes.flip();
+            decoded.clear();
+            decoder.decode(bytes, decoded, endOfInput);
+            if (endOfInput)
+            {
+                decoder.flush(decoded);
+            }
+            bytes.compact();
+            if (!feed(chars, 0, decoded.position()))
+            {
+                return false;
+            }
+        }
+        return finish();
+    }
+
+    /**
+     * Returns the number of chars fed since the last reset.
+     */
+    public long getCharsRead()
+    {
+        return charsRead;
+    }
+
+    /**
+     * Returns the number of chars that had been read when the input was
+     * rejected, which is where the first char no run of the NFA could follow
+     * ends, or -1 if the input hasn't been rejected.
+     */
+    public long getRejectedAt()
+    {
+        return rejectedAt;
+    }
+
+    /**
+     * Moves the engine along one code point.
+     *
+     * int codePoint: the code point to consume
+     *
+     * Returns false if no state is active afterwards.
+     */
+    private boolean step(int codePoint)
+    {
+        if (engine == NFA.SET_ENGINE)
+        {
+            return setMatcher.step(codePoint);
+        }
+        else if (engine == NFA.BITSET_ENGINE)
+        {
+            return bitSetMatcher.step(codePoint);
+        }
+        else if (engine == NFA.LAZY_DFA_ENGINE)
+        {
+            return lazyDFA.step(codePoint);
+        }
+        dfaState = dfa.next(dfaState, dfa.getAlphabet().classOf(codePoint));
+        return dfaState != DFA.DEAD_STATE;
+    }
+}
@@ -161,22 +161,27 @@ public class Transition
     {
         rules.clear();
 
-        ruleString = ruleString.replaceAll(", ", "");
-        ruleString = ruleString.replaceAll(" ", "");
-        ruleString = ruleString.replaceAll(",", "");
+        ruleString = ruleString.replace(", ", "");
+        ruleString = ruleString.replace(" ", "");
+        ruleString = ruleString.replace(",", "");
 
+        // split by code point so a surrogate pair stays one rule
         LinkedHashSet<String> ruleSet = new LinkedHashSet<String>();
-        for (int i = 0; i < ruleString.length(); i++)
+        int i = 0;
+        while (i < ruleString.length())
         {
-            ruleSet.add(Character.toString(ruleString.charAt(i)));
+            int next = ruleString.offsetByCodePoints(i, 1);
+            ruleSet.add(ruleString.substring(i, next));
+            i = next;
         }
 
         for (String s : ruleSet)
         {
-            Rule r = new Rule(s.replaceAll(" ", ""));
+            Rule r = new Rule(s.replace(" ", ""));
             rules.add(r);
         }
         ruleDisplay = buildStringFromRules();
+        fromState.graphChanged();
     }
 
     /**
@@ -186,16 +191,16 @@ public class Transition
      */
     public String buildStringFromRules()
     {
-        String ruleString = "";
-        if (!rules.isEmpty())
+        StringBuilder ruleString = new StringBuilder();
+        for (int i = 0; i < rules.size(); i++)
         {
-            for (Rule rule : rules)
+            if (i > 0)
             {
-                ruleString += rule.getInputChar() + ", ";
+                ruleString.append(", ");
             }
-            ruleString = ruleString.substring(0, ruleString.length() - 2);
+            ruleString.append(rules.get(i).getInputChar());
         }
-        return ruleString;
+        return ruleString.toString();
     }
 
     /**